@@ -1,7 +1,18 @@
 package com.bendude56.dungeonman;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.bendude56.dungeonman.entity.Entity;
 import com.bendude56.dungeonman.entity.EntityPlayer;
@@ -10,6 +21,8 @@ import com.bendude56.dungeonman.item.Item;
 import com.bendude56.dungeonman.item.ItemGoldCoin;
 import com.bendude56.dungeonman.item.ItemKey;
 import com.bendude56.dungeonman.item.ItemPotion;
+import com.bendude56.dungeonman.util.GameRandom;
+import com.bendude56.dungeonman.world.MappedWorldStorage;
 import com.bendude56.dungeonman.world.World;
 import com.bendude56.dungeonman.world.WorldLocation;
 import com.bendude56.dungeonman.world.gen.SimpleDungeonGenerator;
@@ -20,13 +33,36 @@ import com.bendude56.dungeonman.world.gen.SimpleDungeonGenerator;
 
 public class GameInstance {
     private static GameInstance activeInstance;
+    private static volatile ForkJoinPool workerPool;
+    private static ExecutorService backgroundExecutor;
+    
+    // Floors the player isn't on advance one turn for every BACKGROUND_RATE
+    // turns the player takes, and catch up at least BACKGROUND_BATCH turns at
+    // a time
+    private static final int BACKGROUND_RATE = 4;
+    private static final int BACKGROUND_BATCH = 4;
+    
+    // Entity IDs hold a slot number in their low bits and the generation of
+    // that slot above it, so that a recycled slot never reproduces an old ID
+    private static final int ENTITY_SLOT_BITS = 20;
+    private static final int ENTITY_SLOT_MASK = (1 << ENTITY_SLOT_BITS) - 1;
+    private static final int ENTITY_GENERATION_MASK = (1 << (31 - ENTITY_SLOT_BITS)) - 1;
     
     public static GameInstance getActiveInstance() {
         return activeInstance;
     }
     
     public static GameInstance createNewGame(int difficulty, EntityStats stats) {
-        activeInstance = new GameInstance();
+        return createNewGame(difficulty, stats, System.nanoTime());
+    }
+    
+    /**
+     * Creates a new game whose random numbers all follow from the specified
+     * seed, so that two games created with the same seed play out the same
+     * way when given the same input.
+     */
+    public static GameInstance createNewGame(int difficulty, EntityStats stats, long seed) {
+        activeInstance = new GameInstance(seed);
         activeInstance.difficulty = difficulty;
         activeInstance.populateItems();
         activeInstance.generateFloor(1);
@@ -46,16 +82,113 @@ public class GameInstance {
         return activeInstance.getPlayerEntity().getWorld();
     }
     
-    private int nextEntityId = 1;
+    /**
+     * Gets the slot number of an entity ID. No two living entities share a
+     * slot, so the slot number may be used to index arrays of per-entity
+     * data.
+     */
+    public static int getEntitySlot(int id) {
+        return id & ENTITY_SLOT_MASK;
+    }
+    
+    /**
+     * Gets the pool of worker threads shared by any work that is split up
+     * across all of the available cores. The pool is created the first time
+     * it is needed, and its threads never keep the game from exiting.
+     */
+    public static ForkJoinPool getWorkerPool() {
+        ForkJoinPool pool = workerPool;
+        
+        // Only creating the pool needs the lock, so that worker threads can
+        // check which pool they belong to without waiting on each other
+        if (pool == null) {
+            synchronized (GameInstance.class) {
+                if (workerPool == null)
+                    workerPool = new ForkJoinPool();
+                
+                pool = workerPool;
+            }
+        }
+        
+        return pool;
+    }
+    
+    /**
+     * Gets the slot number of the calling thread, which is 0 for any thread
+     * outside of the {@link #getWorkerPool() worker pool} and one more than
+     * the pool index of each of its workers. No two threads working on a world
+     * at once share a slot, so the slot number may be used to index arrays of
+     * per-thread data kept by the world.
+     */
+    public static int getWorkerSlot() {
+        Thread t = Thread.currentThread();
+        
+        if (t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).getPool() == getWorkerPool())
+            return ((ForkJoinWorkerThread) t).getPoolIndex() + 1;
+        
+        return 0;
+    }
+    
+    /**
+     * Gets the thread on which floors that the player isn't on are simulated.
+     * Like the worker pool, it is created the first time it is needed and
+     * never keeps the game from exiting.
+     */
+    private static synchronized ExecutorService getBackgroundExecutor() {
+        if (backgroundExecutor == null) {
+            backgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Floor simulation");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        
+        return backgroundExecutor;
+    }
+    
+    private int nextEntitySlot = 1;
+    private int[] entityGenerations = new int[64];
+    private int[] freeEntitySlots = new int[16];
+    private int freeEntitySlotCount;
     private int nextKeyId = 1;
     private HashMap<Integer, World> floors = new HashMap<Integer, World>();
+    private HashMap<Integer, BackgroundFloor> backgroundFloors = new HashMap<Integer, BackgroundFloor>();
+    private boolean simulatingInactiveFloors;
     private HashMap<Integer, Item> items = new HashMap<Integer, Item>();
     private EntityPlayer player;
     private HashMap<Integer, Boolean> itemIdentified = new HashMap<Integer, Boolean>();
     private int difficulty;
-    private Random random = new Random();
+    private int floorWidth = 200, floorHeight = 200;
+    private File floorStorageDirectory;
+    private long seed;
+    private Random random;
+    private GameRandom gameRandom;
     
     public GameInstance() {
+        this(System.nanoTime());
+    }
+    
+    public GameInstance(long seed) {
+        this.seed = seed;
+        this.random = new Random(seed);
+        this.gameRandom = new GameRandom(seed);
+    }
+    
+    public long getSeed() {
+        return seed;
+    }
+    
+    /**
+     * Creates a new random number generator for something that needs one of
+     * its own, such as a floor. Each generator is split off from this game's,
+     * so the generators created by two games with the same seed match.
+     */
+    public GameRandom splitRandom() {
+        return gameRandom.split();
     }
     
     public EntityPlayer getPlayerEntity() {
@@ -70,14 +203,135 @@ public class GameInstance {
         return floors.get(floor);
     }
     
+    /**
+     * Gets a floor once any simulation of it running in the background has
+     * finished, so that its state can safely be used. This MUST be called
+     * before moving anything onto a floor the player isn't on.
+     * 
+     * @return The floor, or null if it has not been generated
+     */
+    public World syncFloor(int floor) {
+        BackgroundFloor b = backgroundFloors.get(floor);
+        
+        if (b != null)
+            b.finish();
+        
+        return floors.get(floor);
+    }
+    
+    /**
+     * Sets whether floors that the player isn't on keep moving while the
+     * player is away. When set, those floors are simulated on a background
+     * thread at a fraction of the player's pace, and the player's turns never
+     * wait for them. When cleared, those floors are frozen until the player
+     * returns.
+     */
+    public void setSimulatingInactiveFloors(boolean simulating) {
+        if (!simulating) {
+            for (BackgroundFloor b : backgroundFloors.values()) {
+                b.finish();
+            }
+        }
+        
+        this.simulatingInactiveFloors = simulating;
+    }
+    
+    public boolean isSimulatingInactiveFloors() {
+        return simulatingInactiveFloors;
+    }
+    
+    /**
+     * Performs a turn of the floor that the player is on, and lets any other
+     * floors catch up in the background if they are being simulated.
+     */
+    public void doTurn() {
+        World active = player.getWorld();
+        
+        active.doTurn();
+        
+        if (!simulatingInactiveFloors)
+            return;
+        
+        for (Map.Entry<Integer, World> f : floors.entrySet()) {
+            BackgroundFloor b = backgroundFloors.get(f.getKey());
+            
+            if (b == null)
+                backgroundFloors.put(f.getKey(), b = new BackgroundFloor(f.getValue()));
+            
+            // Any turns owed from before the player arrived are forgotten
+            if (f.getValue() == active) {
+                b.owedTurns = 0;
+                continue;
+            }
+            
+            b.owedTurns++;
+            
+            if (b.owedTurns >= BACKGROUND_RATE * BACKGROUND_BATCH && b.isIdle()) {
+                b.start(b.owedTurns / BACKGROUND_RATE);
+                b.owedTurns %= BACKGROUND_RATE;
+            }
+        }
+    }
+    
     public void generateFloor(int floor) {
         if (isFloorGenerated(floor))
             return;
         
-        floors.put(floor, new World(200, 200, floor));
+        World world = null;
+        
+        if (floorStorageDirectory != null) {
+            try {
+                // Each floor gets a file of its own, so that games sharing a
+                // directory never overwrite each other's floors
+                File file = File.createTempFile("floor" + floor + "-", ".map", floorStorageDirectory);
+                file.deleteOnExit();
+                
+                world = new World(new MappedWorldStorage(file, floorWidth, floorHeight), floor);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        if (world == null)
+            world = new World(floorWidth, floorHeight, floor);
+        
+        floors.put(floor, world);
         new SimpleDungeonGenerator(floors.get(floor)).generateLevel(difficulty, floor);
     }
     
+    /**
+     * Sets the size of any floors generated from now on. Floor storage is
+     * only allocated for the parts of a floor that actually get dug out, so
+     * very large floors are cheap as long as they remain mostly solid.
+     */
+    public void setFloorSize(int width, int height) {
+        this.floorWidth = width;
+        this.floorHeight = height;
+    }
+    
+    /**
+     * Sets the directory in which the tiles of any floors generated from now
+     * on should be kept. When set, floors are stored in memory-mapped files
+     * rather than on the heap, each under a newly chosen name. The files are
+     * deleted when the program exits. Setting this to null returns to keeping
+     * floors on the heap.
+     */
+    public void setFloorStorageDirectory(File directory) {
+        this.floorStorageDirectory = directory;
+    }
+    
+    public File getFloorStorageDirectory() {
+        return floorStorageDirectory;
+    }
+    
+    public int getFloorWidth() {
+        return floorWidth;
+    }
+    
+    public int getFloorHeight() {
+        return floorHeight;
+    }
+    
     public int getCurrentFloor() {
         return player.getWorld().getFloor();
     }
@@ -91,13 +345,48 @@ public class GameInstance {
     }
     
     public void teleport(Entity e, WorldLocation l) {
+        syncFloor(l.world.getFloor());
         e.getWorld().removeEntity(e);
         e.setLocation(l);
         e.getWorld().addEntity(e);
     }
     
-    public int generateEntityId() {
-        return nextEntityId++;
+    public synchronized int generateEntityId() {
+        int slot;
+        
+        if (freeEntitySlotCount > 0) {
+            slot = freeEntitySlots[--freeEntitySlotCount];
+        } else {
+            if (nextEntitySlot > ENTITY_SLOT_MASK)
+                throw new IllegalStateException("Too many entities!");
+            
+            slot = nextEntitySlot++;
+            
+            if (slot >= entityGenerations.length)
+                entityGenerations = Arrays.copyOf(entityGenerations, entityGenerations.length * 2);
+        }
+        
+        return (entityGenerations[slot] << ENTITY_SLOT_BITS) | slot;
+    }
+    
+    /**
+     * Releases the ID of an entity which has been removed from the game for
+     * good, allowing its slot to be reused. The entity MUST NOT remain in any
+     * world after its ID is released.
+     */
+    public synchronized void releaseEntityId(int id) {
+        int slot = getEntitySlot(id);
+        
+        // Ignore IDs that have already been released
+        if (slot == 0 || slot >= nextEntitySlot || entityGenerations[slot] != id >>> ENTITY_SLOT_BITS)
+            return;
+        
+        entityGenerations[slot] = (entityGenerations[slot] + 1) & ENTITY_GENERATION_MASK;
+        
+        if (freeEntitySlotCount == freeEntitySlots.length)
+            freeEntitySlots = Arrays.copyOf(freeEntitySlots, freeEntitySlotCount * 2);
+        
+        freeEntitySlots[freeEntitySlotCount++] = slot;
     }
     
     public int generateKeyId() {
@@ -127,4 +416,65 @@ public class GameInstance {
             itemIdentified.put(3 + i, false);
         }
     }
+    
+    /**
+     * The simulation of a floor that the player isn't on. Only the thread
+     * running the player's turns touches this, and it only touches the floor
+     * itself while no simulation of the floor is running.
+     */
+    private static class BackgroundFloor {
+        private final World world;
+        private int owedTurns;
+        private Future<?> running;
+        
+        private BackgroundFloor(World world) {
+            this.world = world;
+        }
+        
+        private boolean isIdle() {
+            if (running != null && running.isDone())
+                finish();
+            
+            return running == null;
+        }
+        
+        private void start(final int turns) {
+            running = getBackgroundExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < turns; i++) {
+                        world.doTurn();
+                    }
+                }
+            });
+        }
+        
+        /**
+         * Waits for any running simulation to finish.
+         */
+        private void finish() {
+            if (running == null)
+                return;
+            
+            Future<?> f = running;
+            boolean interrupted = false;
+            
+            running = null;
+            
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Simulation of floor " + world.getFloor() + " failed!",
+                            e.getCause());
+                }
+            }
+            
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -1,9 +1,7 @@
 package com.bendude56.dungeonman.entity;
 
-import java.util.Random;
-
+import com.bendude56.dungeonman.world.World;
 import com.bendude56.dungeonman.world.WorldLocation;
-import com.bendude56.dungeonman.world.tile.Tile;
 
 /**
  * @author Benjamin C. Thomas
@@ -21,13 +19,7 @@ public class AIController {
      * @return The amount of damage that should be done to the attacked entity
      */
     public static int calculateAttackPower(EntityAlive attacker, EntityAlive atackee) {
-        int baseDamage = atackee.calculateIncomingDamage(attacker.calculateOutgoingDamage());
-        int deviation = atackee.calculateIncomingDeviation(baseDamage, attacker.calculateOutgoingDeviation(baseDamage));
-        
-        if (deviation > 0)
-            baseDamage += new Random().nextInt(deviation);
-        
-        return Math.max(0, baseDamage);
+        return CombatEngine.resolveAttack(attacker, atackee, attacker.getWorld().getRandom());
     }
     
     /**
@@ -40,105 +32,68 @@ public class AIController {
      *         blocking the line of sight
      */
     public static boolean checkVisibility(WorldLocation l1, WorldLocation l2) {
-        int x1 = l1.x * Tile.TILE_WIDTH + Tile.TILE_WIDTH / 2;
-        int y1 = l1.y * Tile.TILE_HEIGHT + Tile.TILE_HEIGHT / 2;
-        int x2 = l2.x * Tile.TILE_WIDTH + Tile.TILE_WIDTH / 2;
-        int y2 = l2.y * Tile.TILE_HEIGHT + Tile.TILE_HEIGHT / 2;
+        return checkVisibility(l1.world, l1.x, l1.y, l2.x, l2.y);
+    }
+    
+    /**
+     * Checks whether one location is visible from another. Unlike
+     * {@link #checkVisibility(WorldLocation, WorldLocation)}, this does not
+     * allocate. The line of sight is traced tile by tile, and the result is
+     * the same whichever of the two locations is given first.
+     * 
+     * @param world The world in which both locations lie
+     * @param tileX1 The x location of the first tile to check
+     * @param tileY1 The y location of the first tile to check
+     * @param tileX2 The x location of the second tile to check
+     * @param tileY2 The y location of the second tile to check
+     * 
+     * @return True if visibility is unobscured, false if an opaque tile is
+     *         blocking the line of sight
+     */
+    public static boolean checkVisibility(World world, int tileX1, int tileY1, int tileX2, int tileY2) {
+        int x1 = tileX1, y1 = tileY1, x2 = tileX2, y2 = tileY2;
         
-        // Special case for vertical lines
-        if (x1 == x2) {
-            for (int y = Math.min(y1, y2); y <= Math.max(y1, y2); y += Tile.TILE_HEIGHT) {
-                WorldLocation l = new WorldLocation(l1.world, (int) (x1 / Tile.TILE_WIDTH), (int) (y / Tile.TILE_HEIGHT));
-                if (!l1.world.getTile(l).isTransparent()) {
-                    if (!(l1.equals(l) || l2.equals(l)))
-                        return false;
-                }
-            }
-        } else {
-            // Ensure that x1 < x2
-            if (x1 > x2) {
-                int temp = x1;
-                x1 = x2;
-                x2 = temp;
-                
-                temp = y1;
-                y1 = y2;
-                y2 = temp;
-            }
-            
-            double slope = (double) (y2 - y1) / (double) (x2 - x1);
+        // Always trace the line from the same end, so that the result is the
+        // same whichever of the two locations is doing the looking
+        if (x1 > x2 || (x1 == x2 && y1 > y2)) {
+            x1 = tileX2;
+            y1 = tileY2;
+            x2 = tileX1;
+            y2 = tileY1;
+        }
+        
+        int dx = x2 - x1;
+        int dy = Math.abs(y2 - y1);
+        int stepY = (y1 < y2) ? 1 : -1;
+        
+        // The tiles at either end of the line never block it
+        if (dx >= dy) {
+            int error = 2 * dy - dx;
+            int y = y1;
             
-            // Check when x = x1 + 16 + 32n
-            for (int x = x1 + Tile.TILE_WIDTH / 2; x <= x2; x += Tile.TILE_WIDTH) {
-                WorldLocation l;
-                int y = (int) (y1 + (x - x1) * slope);
-                
-                l = new WorldLocation(l1.world, (int) (x / Tile.TILE_WIDTH), (int) (y / Tile.TILE_HEIGHT));
-                if (!l1.world.getTile(l).isTransparent()) {
-                    if (!(l1.equals(l) || l2.equals(l)))
-                        return false;
-                }
-                
-                l = new WorldLocation(l1.world, (int) (x / Tile.TILE_WIDTH) - 1, (int) (y / Tile.TILE_HEIGHT));
-                if (!l1.world.getTile(l).isTransparent()) {
-                    if (!(l1.equals(l) || l2.equals(l)))
-                        return false;
+            for (int x = x1 + 1; x < x2; x++) {
+                if (error > 0) {
+                    y += stepY;
+                    error -= 2 * dx;
                 }
+                error += 2 * dy;
                 
-                if (y % Tile.TILE_HEIGHT == 0) {
-                    l = new WorldLocation(l1.world, (int) (x / Tile.TILE_WIDTH), (int) (y / Tile.TILE_HEIGHT) - 1);
-                    if (!l1.world.getTile(l).isTransparent()) {
-                        if (!(l1.equals(l) || l2.equals(l)))
-                            return false;
-                    }
-                    
-                    l = new WorldLocation(l1.world, (int) (x / Tile.TILE_WIDTH) - 1, (int) (y / Tile.TILE_HEIGHT) - 1);
-                    if (!l1.world.getTile(l).isTransparent()) {
-                        if (!(l1.equals(l) || l2.equals(l)))
-                            return false;
-                    }
-                }
+                if (world.isOpaque(x, y))
+                    return false;
             }
+        } else {
+            int error = 2 * dx - dy;
+            int x = x1;
             
-            // Do not check for straight horizontal lines
-            if (slope != 0) {
-                double deltaX = Math.abs((Tile.TILE_HEIGHT / 2) / slope);
-                
-                // Check when y = y1 + 16 + 32n
-                for (int x = x1; x <= x2; x += deltaX) {
-                    WorldLocation l;
-                    int y = (int) (y1 + (x - x1) * slope);
-                    
-                    l = new WorldLocation(l1.world, (int) (x / Tile.TILE_WIDTH), (int) (y / Tile.TILE_HEIGHT));
-                    if (!l1.world.getTile(l).isTransparent()) {
-                        if (!(l1.equals(l) || l2.equals(l)))
-                            return false;
-                    }
-                    
-                    if (x % Tile.TILE_WIDTH == 0) {
-                        l = new WorldLocation(l1.world, (int) (x / Tile.TILE_WIDTH) - 1, (int) (y / Tile.TILE_HEIGHT));
-                        if (!l1.world.getTile(l).isTransparent()) {
-                            if (!(l1.equals(l) || l2.equals(l)))
-                                return false;
-                        }
-                    }
-                    
-                    if (y % Tile.TILE_HEIGHT == 0) {
-                        l = new WorldLocation(l1.world, (int) (x / Tile.TILE_WIDTH), (int) (y / Tile.TILE_HEIGHT) - 1);
-                        if (!l1.world.getTile(l).isTransparent()) {
-                            if (!(l1.equals(l) || l2.equals(l)))
-                                return false;
-                        }
-                        
-                        if (x % Tile.TILE_WIDTH == 0) {
-                            l = new WorldLocation(l1.world, (int) (x / Tile.TILE_WIDTH) - 1, (int) (y / Tile.TILE_HEIGHT) - 1);
-                            if (!l1.world.getTile(l).isTransparent()) {
-                                if (!(l1.equals(l) || l2.equals(l)))
-                                    return false;
-                            }
-                        }
-                    }
+            for (int y = y1 + stepY; y != y2; y += stepY) {
+                if (error > 0) {
+                    x++;
+                    error -= 2 * dy;
                 }
+                error += 2 * dx;
+                
+                if (world.isOpaque(x, y))
+                    return false;
             }
         }
         
@@ -152,7 +107,18 @@ public class AIController {
      * @param l2 The second location to check
      */
     public static int getDistance(WorldLocation l1, WorldLocation l2) {
-        return (int) Math.ceil(Math.sqrt(Math.pow(l1.x - l2.x, 2) + Math.pow(l1.y - l2.y, 2)));
+        return getDistance(l1.x, l1.y, l2.x, l2.y);
+    }
+    
+    /**
+     * Gets the distance between two locations, rounded up to the nearest
+     * tile.
+     */
+    public static int getDistance(int x1, int y1, int x2, int y2) {
+        int dx = x1 - x2;
+        int dy = y1 - y2;
+        
+        return (int) Math.ceil(Math.sqrt(dx * dx + dy * dy));
     }
     
     /**
@@ -162,16 +128,88 @@ public class AIController {
      * @param target The target towards which the entity should move
      */
     public static void moveTowards(EntityEnemy moving, WorldLocation target) {
-        // TODO: Implement pathfinding
+        moveTowards(moving, target.x, target.y);
+    }
+    
+    /**
+     * Uses the AI to make an entity move towards a specific target. The entity
+     * follows the shortest path around any walls in the way, and only heads
+     * straight for the target if no path gets it any closer.
+     * 
+     * @param moving The entity which should be moved
+     * @param targetX The x location towards which the entity should move
+     * @param targetY The y location towards which the entity should move
+     */
+    public static void moveTowards(EntityEnemy moving, int targetX, int targetY) {
+        int step = findNextStep(moving, targetX, targetY);
+        
+        if (step >= 0)
+            moving.doMove(step % moving.getWorld().getWidth(), step / moving.getWorld().getWidth());
+    }
+    
+    /**
+     * Decides where an entity should step next on its way towards a specific
+     * target, in the same way as {@link #moveTowards(EntityEnemy, int, int)}
+     * but without moving it. Nothing in the world is changed, so this may be
+     * called for many entities at once from different threads as long as
+     * the world's {@link World#getFlowField() flow field} is up to date.
+     * 
+     * @param moving The entity which should be moved
+     * @param targetX The x location towards which the entity should move
+     * @param targetY The y location towards which the entity should move
+     * 
+     * @return The tile to step onto, as y * width + x, or -1 if the entity is
+     *         already at the target
+     */
+    public static int findNextStep(EntityEnemy moving, int targetX, int targetY) {
+        World w = moving.getWorld();
+        
+        // Entities chasing a player can share one search towards the players,
+        // and only need a search of their own for any other target
+        int step = w.getFlowField().findNextStep(moving.getX(), moving.getY(), targetX, targetY);
+        
+        // Long chases are planned over the world's rooms and doors first, so
+        // that the tile search only has to reach the next door on the way
+        if (step < 0 && w.getRegionGraph() != null) {
+            int waypoint = w.getRegionGraph().findWaypoint(moving.getX(), moving.getY(), targetX, targetY);
+            
+            if (waypoint >= 0)
+                step = w.getPathFinder().findNextStep(moving.getX(), moving.getY(), waypoint % w.getWidth(),
+                        waypoint / w.getWidth());
+        }
+        
+        if (step < 0)
+            step = w.getPathFinder().findNextStep(moving.getX(), moving.getY(), targetX, targetY);
         
-        if (moving.getLocation().x > target.x) {
-            moving.doMove(moving.getLocation().adjustLocation(-1, 0));
-        } else if (moving.getLocation().x < target.x) {
-            moving.doMove(target = moving.getLocation().adjustLocation(1, 0));
-        } else if (moving.getLocation().y > target.y) {
-            moving.doMove(target = moving.getLocation().adjustLocation(0, 1));
-        } else if (moving.getLocation().y < target.y) {
-            moving.doMove(target = moving.getLocation().adjustLocation(0, -1));
+        return (step >= 0) ? step : findGreedyStep(moving, targetX, targetY);
+    }
+    
+    /**
+     * Decides where an entity should step next on its way towards a specific
+     * target by heading straight for it, without looking for a way around any
+     * walls in the way. Like {@link #findNextStep(EntityEnemy, int, int)},
+     * this does not change anything in the world.
+     * 
+     * @param moving The entity which should be moved
+     * @param targetX The x location towards which the entity should move
+     * @param targetY The y location towards which the entity should move
+     * 
+     * @return The tile to step onto, as y * width + x, or -1 if the entity is
+     *         already at the target
+     */
+    public static int findGreedyStep(Entity moving, int targetX, int targetY) {
+        World w = moving.getWorld();
+        
+        if (moving.getX() > targetX) {
+            return moving.getY() * w.getWidth() + moving.getX() - 1;
+        } else if (moving.getX() < targetX) {
+            return moving.getY() * w.getWidth() + moving.getX() + 1;
+        } else if (moving.getY() > targetY) {
+            return (moving.getY() - 1) * w.getWidth() + moving.getX();
+        } else if (moving.getY() < targetY) {
+            return (moving.getY() + 1) * w.getWidth() + moving.getX();
+        } else {
+            return -1;
         }
     }
 }
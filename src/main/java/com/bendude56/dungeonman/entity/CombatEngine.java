@@ -0,0 +1,39 @@
+package com.bendude56.dungeonman.entity;
+
+import com.bendude56.dungeonman.util.GameRandom;
+
+/**
+ * Works out how much damage attacks do. Each entity's
+ * {@link CombatProfile combat profile} is kept up to date by the entity
+ * itself, so an attack costs a little integer arithmetic and at most one
+ * random number. Given generators in the same state, attacks always do the
+ * same damage.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class CombatEngine {
+    
+    /**
+     * Works out the damage done when one entity attacks another. The damage is
+     * not applied.
+     * 
+     * @param attacker The entity which is performing the attack
+     * @param defender The entity that is being attacked
+     * @param random The generator from which any random deviation is drawn
+     * 
+     * @return The amount of damage that should be done to the attacked entity
+     */
+    public static int resolveAttack(EntityAlive attacker, EntityAlive defender, GameRandom random) {
+        CombatProfile a = attacker.getCombatProfile();
+        CombatProfile d = defender.getCombatProfile();
+        
+        int damage = d.adjustIncomingDamage(a.getDamage());
+        int deviation = d.adjustIncomingDeviation(damage, a.getDeviation(damage));
+        
+        if (deviation > 0)
+            damage += random.nextInt(deviation);
+        
+        return Math.max(0, damage);
+    }
+}
@@ -0,0 +1,91 @@
+package com.bendude56.dungeonman.entity;
+
+/**
+ * The numbers describing how an {@link EntityAlive} fights, which depend only
+ * on the entity itself and not on who it is fighting. They are worked out from
+ * the entity's {@link EntityStats} ahead of time, so that resolving an attack
+ * only has to do a little integer arithmetic. An entity works its profile out
+ * again whenever its stats change.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class CombatProfile {
+    private int damage;
+    private int deviationStrength;
+    private int defense;
+    private boolean defended;
+    
+    // What the profile was worked out from, so that it can tell when it is out
+    // of date
+    private boolean current;
+    private int statsVersion;
+    private int difficulty;
+    
+    CombatProfile() {
+    }
+    
+    /**
+     * Gets the base amount of damage done by the entity's attacks.
+     */
+    public int getDamage() {
+        return damage;
+    }
+    
+    /**
+     * Gets the amount of deviation (only in the positive direction) that
+     * should be applied to an attack by the entity.
+     * 
+     * @param damage The base amount of damage being done by the attack
+     */
+    public int getDeviation(int damage) {
+        return EntityStats.outgoingDeviation(damage, deviationStrength);
+    }
+    
+    /**
+     * Adjusts damage done to the entity to account for its defense.
+     * 
+     * @param damage The base amount of damage being done by the attack
+     */
+    public int adjustIncomingDamage(int damage) {
+        return defended ? EntityStats.incomingDamage(damage, defense) : damage;
+    }
+    
+    /**
+     * Adjusts the deviation of an attack on the entity to account for its
+     * defense.
+     * 
+     * @param damage The base amount of damage being done by the attack
+     * @param deviation The deviation supplied by the attacker's profile
+     */
+    public int adjustIncomingDeviation(int damage, int deviation) {
+        return EntityStats.incomingDeviation(damage, deviation, defense);
+    }
+    
+    /**
+     * Sets the numbers in this profile.
+     * 
+     * @param damage The base amount of damage done by the entity's attacks
+     * @param deviationStrength The strength from which the deviation of the
+     *            entity's attacks is worked out, or 0 if they never deviate
+     * @param defense The defense of the entity
+     * @param defended Whether the entity's defense reduces the damage it takes,
+     *            rather than only the deviation
+     */
+    void set(int damage, int deviationStrength, int defense, boolean defended) {
+        this.damage = damage;
+        this.deviationStrength = deviationStrength;
+        this.defense = defense;
+        this.defended = defended;
+    }
+    
+    boolean isCurrent(EntityStats stats, int difficulty) {
+        return current && statsVersion == stats.getVersion() && this.difficulty == difficulty;
+    }
+    
+    void setCurrent(EntityStats stats, int difficulty) {
+        this.current = true;
+        this.statsVersion = stats.getVersion();
+        this.difficulty = difficulty;
+    }
+}
@@ -28,7 +28,7 @@ public abstract class Entity implements Comparable<Entity> {
      * @param i The stack of items to be dropped
      */
     public final void dropItem(ItemStack i) {
-        world.dropItemStack(i, getLocation());
+        world.dropItemStack(i, x, y);
     }
     
     /**
@@ -45,6 +45,22 @@ public abstract class Entity implements Comparable<Entity> {
         return new WorldLocation(world, x, y);
     }
     
+    /**
+     * Gets the x location of this entity within its world. Unlike
+     * {@link #getLocation()}, this does not allocate.
+     */
+    public final int getX() {
+        return x;
+    }
+    
+    /**
+     * Gets the y location of this entity within its world. Unlike
+     * {@link #getLocation()}, this does not allocate.
+     */
+    public final int getY() {
+        return y;
+    }
+    
     /**
      * Teleports this entity to the specified location. Teleporting between
      * worlds may cause unintended problems; when teleporting between worlds,
@@ -55,9 +71,30 @@ public abstract class Entity implements Comparable<Entity> {
      * @param l
      */
     public void setLocation(WorldLocation l) {
+        World oldWorld = world;
+        int oldX = x, oldY = y;
+        
         x = l.x;
         y = l.y;
         world = l.world;
+        
+        if (oldWorld != null)
+            oldWorld.updateEntityLocation(this, oldX, oldY);
+    }
+    
+    /**
+     * Moves this entity to the specified location within its current world.
+     * 
+     * @param x The x location to which this entity should move
+     * @param y The y location to which this entity should move
+     */
+    public void setLocation(int x, int y) {
+        int oldX = this.x, oldY = this.y;
+        
+        this.x = x;
+        this.y = y;
+        
+        world.updateEntityLocation(this, oldX, oldY);
     }
     
     /**
@@ -74,6 +111,36 @@ public abstract class Entity implements Comparable<Entity> {
      */
     public abstract void doTurn();
     
+    /**
+     * Decides what this entity will do on its next turn, ahead of
+     * {@link #doTurn()} actually doing it. A world plans the turns of every
+     * entity due to act at the same moment at once, spread across several
+     * threads, before any of them act. This MUST therefore only read the
+     * world, and only change this entity's own plan. Entities that do not
+     * plan ahead simply decide what to do during {@link #doTurn()}.
+     */
+    public void planTurn() {
+    }
+    
+    /**
+     * Gets the number of ticks between this entity's turns. An entity with a
+     * delay of {@link World#TURN_LENGTH} acts once for every turn the player
+     * takes; players themselves always act once per turn.
+     */
+    public int getActionDelay() {
+        return World.TURN_LENGTH;
+    }
+    
+    /**
+     * Gets a boolean value representing whether this entity has nothing to do
+     * for now. An idle entity is put to sleep after its turn, and does not act
+     * again until a player comes within its view distance or it is woken with
+     * {@link World#wakeEntity(Entity)}.
+     */
+    public boolean isIdle() {
+        return false;
+    }
+    
     /**
      * Called when an entity performs the specified action on this entity
      * 
@@ -90,7 +157,7 @@ public abstract class Entity implements Comparable<Entity> {
      * player and should be rendered
      */
     public boolean isVisible() {
-        return world.isTileVisible(getLocation()) && !dead;
+        return world.isTileVisible(x, y) && !dead;
     }
     
     /**
@@ -106,7 +173,10 @@ public abstract class Entity implements Comparable<Entity> {
      * Marks this entity for removal from the world.
      */
     public void die() {
-        dead = true;
+        if (!dead) {
+            dead = true;
+            world.queueEntityRemoval(this);
+        }
     }
     
     public int getDrawOrder() {
@@ -1,6 +1,7 @@
 package com.bendude56.dungeonman.entity;
 
 import com.bendude56.dungeonman.GameInstance;
+import com.bendude56.dungeonman.world.World;
 import com.bendude56.dungeonman.world.WorldLocation;
 
 /**
@@ -12,6 +13,7 @@ public abstract class EntityAlive extends Entity {
     private int maxHp = 1;
     private int hp = 1;
     private EntityStats stats;
+    private CombatProfile combatProfile = new CombatProfile();
     
     public EntityAlive(WorldLocation l, EntityStats stats) {
         super(l);
@@ -32,12 +34,35 @@ public abstract class EntityAlive extends Entity {
      * 
      * @param e The entity that should be checked for visibility
      * 
-     * @return True if and only if the entity is within view distance and the
-     *         line of sight between the two entities is unobstructed
+     * @return True if and only if the entity is within view distance and is
+     *         {@link World#canBeSeenFrom(Entity, int, int) in sight} of this
+     *         entity's location
      */
     public final boolean canSee(Entity e) {
-        return AIController.getDistance(getLocation(), e.getLocation()) <= viewDistance
-                && AIController.checkVisibility(getLocation(), e.getLocation());
+        if (e.getWorld() != getWorld())
+            return false;
+        
+        int dx = e.getX() - getX();
+        int dy = e.getY() - getY();
+        
+        if (dx * dx + dy * dy > viewDistance * viewDistance)
+            return false;
+        
+        return getWorld().canBeSeenFrom(e, getX(), getY());
+    }
+    
+    /**
+     * Gets the number of ticks between this entity's turns. An agility of 5
+     * acts once per turn, and every doubling of agility halves the delay, up
+     * to four turns per turn. Entities with no agility act every other turn.
+     */
+    @Override
+    public int getActionDelay() {
+        if (stats.getAgility() <= 0)
+            return World.TURN_LENGTH * 2;
+        
+        int delay = World.TURN_LENGTH * 5 / stats.getAgility();
+        return Math.max(World.TURN_LENGTH / 4, Math.min(World.TURN_LENGTH * 2, delay));
     }
     
     /**
@@ -88,12 +113,39 @@ public abstract class EntityAlive extends Entity {
         }
     }
     
+    /**
+     * Gets the numbers describing how this entity fights, working them out
+     * again first if this entity's stats have changed since they were last
+     * worked out.
+     */
+    public CombatProfile getCombatProfile() {
+        int difficulty = GameInstance.getActiveInstance().getDifficulty();
+        
+        if (!combatProfile.isCurrent(stats, difficulty)) {
+            updateCombatProfile(combatProfile, difficulty);
+            combatProfile.setCurrent(stats, difficulty);
+        }
+        
+        return combatProfile;
+    }
+    
+    /**
+     * Works out the numbers describing how this entity fights from its stats.
+     * 
+     * @param p The profile in which the numbers should be set
+     * @param difficulty The difficulty of the game
+     */
+    protected void updateCombatProfile(CombatProfile p, int difficulty) {
+        // On the harder difficulties, only the player's defense protects them
+        p.set(stats.calculateOutgoingDamage(10), stats.getStrength(), stats.getDefense(), difficulty < 5);
+    }
+    
     /**
      * Calculates the base amount of damage that this entity will do when
      * attacking another entity.
      */
     public int calculateOutgoingDamage() {
-        return stats.calculateOutgoingDamage(10);
+        return getCombatProfile().getDamage();
     }
     
     /**
@@ -106,7 +158,7 @@ public abstract class EntityAlive extends Entity {
      *         that this value CAN be zero.
      */
     public int calculateOutgoingDeviation(int damage) {
-        return stats.calculateOutgoingDeviation(damage);
+        return getCombatProfile().getDeviation(damage);
     }
     
     /**
@@ -120,10 +172,7 @@ public abstract class EntityAlive extends Entity {
      * @return The new base amount of damage to do to this entity
      */
     public int calculateIncomingDamage(int damage) {
-        if (!(this instanceof EntityPlayer) && GameInstance.getActiveInstance().getDifficulty() >= 5)
-            return damage;
-        else
-            return stats.calculateIncomingDamage(damage);
+        return getCombatProfile().adjustIncomingDamage(damage);
     }
     
     /**
@@ -137,6 +186,6 @@ public abstract class EntityAlive extends Entity {
      * @return The adjusted amount of deviation to be applied to the attack
      */
     public int calculateIncomingDeviation(int damage, int deviation) {
-        return stats.calculateIncomingDeviation(damage, deviation);
+        return getCombatProfile().adjustIncomingDeviation(damage, deviation);
     }
 }
@@ -1,17 +1,45 @@
 package com.bendude56.dungeonman.entity;
 
+import com.bendude56.dungeonman.world.EntityPartition;
+import com.bendude56.dungeonman.world.World;
 import com.bendude56.dungeonman.world.WorldLocation;
+import com.bendude56.dungeonman.world.path.PathFinder;
 
 /**
  * @author Benjamin C. Thomas
  */
 
 public abstract class EntityEnemy extends EntityAlive {
+    // Enemies are simulated in less detail the further they are from both the
+    // players and the place they last saw their target. These are measured
+    // in tiles along whichever axis is further.
+    private static final int FULL_DETAIL_DISTANCE = 16;
+    private static final int REDUCED_DETAIL_DISTANCE = 48;
+    
+    // How many turns apart an enemy in reduced detail looks around and plans
+    // its path, and how many turns apart a dormant enemy checks whether it
+    // should wake up again
+    private static final int REDUCED_DETAIL_INTERVAL = 4;
+    private static final int DORMANT_INTERVAL = 16;
+    
     private Entity target;
-    private WorldLocation targetLastSeen;
+    private int targetLastSeenX, targetLastSeenY;
     private String name;
     private int damagePower;
     
+    // The plan made by planTurn for this entity's next turn, and what it was
+    // based on
+    private boolean planned;
+    private Entity plannedTarget;
+    private boolean plannedSight;
+    private int plannedTargetX, plannedTargetY;
+    private int plannedStep;
+    private int planX, planY, planVersion;
+    private boolean plannedLook;
+    
+    private Detail detail = Detail.FULL;
+    private int turnsSinceLook;
+    
     public EntityEnemy(WorldLocation l, EntityStats stats, String name, int viewDistance, int damagePower) {
         super(l, stats);
         this.damagePower = damagePower;
@@ -33,7 +61,7 @@ public abstract class EntityEnemy extends EntityAlive {
      * this entity. This is the location towards which this entity will head.
      */
     public WorldLocation getTargetLastSeen() {
-        return targetLastSeen;
+        return (target == null) ? null : new WorldLocation(getWorld(), targetLastSeenX, targetLastSeenY);
     }
     
     /**
@@ -55,19 +83,114 @@ public abstract class EntityEnemy extends EntityAlive {
         }
         
         target = e;
-        targetLastSeen = e.getLocation();
+        
+        if (e != null) {
+            targetLastSeenX = e.getX();
+            targetLastSeenY = e.getY();
+            
+            if (getWorld() != null)
+                getWorld().wakeEntity(this);
+        }
     }
     
+    /**
+     * Gets the level of detail in which this entity was last simulated.
+     */
+    public Detail getDetail() {
+        return detail;
+    }
+    
+    /**
+     * Gets the number of ticks between this entity's turns. Dormant entities
+     * only take a turn every so often to check whether they should wake up.
+     */
     @Override
-    public void doTurn() {
-        if (target != null && canSee(target)) {
-            targetLastSeen = target.getLocation();
+    public int getActionDelay() {
+        return (detail == Detail.DORMANT) ? super.getActionDelay() * DORMANT_INTERVAL : super.getActionDelay();
+    }
+    
+    @Override
+    public void planTurn() {
+        Entity t = target;
+        
+        detail = findDetail();
+        plannedLook = false;
+        
+        // A dormant entity keeps its target and does nothing else, and one
+        // in reduced detail mostly heads straight for where its target was
+        // last seen without looking around
+        if (t != null && (detail == Detail.DORMANT || (detail == Detail.REDUCED
+                && turnsSinceLook + 1 < REDUCED_DETAIL_INTERVAL))) {
+            plannedTarget = t;
+            plannedSight = false;
+            plannedTargetX = targetLastSeenX;
+            plannedTargetY = targetLastSeenY;
+            plannedStep = (detail == Detail.REDUCED) ? AIController.findGreedyStep(this, targetLastSeenX,
+                    targetLastSeenY) : -1;
+            finishPlan();
+            return;
         }
         
-        targetCheck();
+        plannedLook = true;
         
-        if (target != null)
-            AIController.moveTowards(this, targetLastSeen);
+        plannedSight = t != null && canSee(t);
+        
+        if (t == null) {
+            t = findVisiblePlayer();
+            plannedSight = t != null;
+        }
+        
+        if (plannedSight) {
+            plannedTargetX = t.getX();
+            plannedTargetY = t.getY();
+        } else {
+            plannedTargetX = targetLastSeenX;
+            plannedTargetY = targetLastSeenY;
+        }
+        
+        plannedTarget = t;
+        plannedStep = (t != null) ? AIController.findNextStep(this, plannedTargetX, plannedTargetY) : -1;
+        finishPlan();
+    }
+    
+    private void finishPlan() {
+        planX = getX();
+        planY = getY();
+        planVersion = getPlanVersion();
+        planned = true;
+    }
+    
+    @Override
+    public void doTurn() {
+        // Entities that acted earlier in the turn may have moved this one,
+        // moved its target or changed the tiles around it, in which case the
+        // plan is made again from what things look like now
+        boolean targetMoved = plannedSight
+                && (plannedTarget.getX() != plannedTargetX || plannedTarget.getY() != plannedTargetY);
+        
+        if (!planned || targetMoved || getX() != planX || getY() != planY || getPlanVersion() != planVersion)
+            planTurn();
+        
+        planned = false;
+        turnsSinceLook = plannedLook ? 0 : turnsSinceLook + 1;
+        
+        if (plannedSight) {
+            target = plannedTarget;
+            targetLastSeenX = plannedTargetX;
+            targetLastSeenY = plannedTargetY;
+        }
+        
+        if (target != null && plannedStep >= 0)
+            doMove(plannedStep % getWorld().getWidth(), plannedStep / getWorld().getWidth());
+    }
+    
+    /**
+     * Gets a boolean value representing whether this entity has nothing to do
+     * for now, which is the case whenever it has no target.
+     */
+    @Override
+    public boolean isIdle() {
+        return target == null;
     }
     
     @Override
@@ -86,33 +209,90 @@ public abstract class EntityEnemy extends EntityAlive {
         return false;
     }
     
-    private void targetCheck() {
-        for (Entity e : getWorld().getEntities(getLocation().x - viewDistance, getLocation().y - viewDistance,
-                getLocation().x + viewDistance, getLocation().y + viewDistance)) {
-            if (e instanceof EntityPlayer && canSee(e) && target == null) {
-                setTarget(e);
-            }
+    private Entity findVisiblePlayer() {
+        World w = getWorld();
+        
+        // Only players are ever targeted, so there's no need to look at
+        // anything else nearby
+        for (int i = 0; i < w.getEntityCount(EntityPartition.PLAYERS); i++) {
+            Entity e = w.getEntity(EntityPartition.PLAYERS, i);
+            
+            if (canSee(e))
+                return e;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Decides how much detail this entity should be simulated in, based on
+     * how far away it is from the closest player and from the place where it
+     * last saw its target.
+     */
+    private Detail findDetail() {
+        World w = getWorld();
+        int d = Integer.MAX_VALUE;
+        
+        if (target != null)
+            d = Math.max(Math.abs(targetLastSeenX - getX()), Math.abs(targetLastSeenY - getY()));
+        
+        for (int i = 0; i < w.getEntityCount(EntityPartition.PLAYERS); i++) {
+            Entity e = w.getEntity(EntityPartition.PLAYERS, i);
+            
+            d = Math.min(d, Math.max(Math.abs(e.getX() - getX()), Math.abs(e.getY() - getY())));
+        }
+        
+        if (d <= FULL_DETAIL_DISTANCE) {
+            return Detail.FULL;
+        } else if (d <= REDUCED_DETAIL_DISTANCE) {
+            return Detail.REDUCED;
+        } else {
+            return Detail.DORMANT;
         }
     }
     
+    /**
+     * Gets the version of the tiles that a plan for this entity's turn could
+     * depend on.
+     */
+    private int getPlanVersion() {
+        int r = PathFinder.DEFAULT_RADIUS;
+        
+        return getWorld().getTileVersion(getX() - r, getY() - r, getX() + r, getY() + r);
+    }
+    
     /**
      * Attempts to move this entity to the designated location, firing any
      * events along the way.
      * 
-     * @param l The location to which this entity should move.
+     * @param l The location to which this entity should move. MUST be in the
+     *            same world as this entity.
      */
     public void doMove(WorldLocation l) {
-        if (!l.getTile().onEntityMove(l.world.getTileState(l), this)) {
+        doMove(l.x, l.y);
+    }
+    
+    /**
+     * Attempts to move this entity to the designated location within its
+     * world, firing any events along the way.
+     * 
+     * @param x The x location to which this entity should move.
+     * @param y The y location to which this entity should move.
+     */
+    public void doMove(int x, int y) {
+        World w = getWorld();
+        
+        if (!w.getTile(x, y).onEntityMove(w.getTileState(x, y), this)) {
             return;
         }
         
-        for (Entity e : l.world.getEntities(l)) {
+        for (Entity e : w.getEntities(x, y)) {
             if (!e.doAction(ActionType.MOVE, this)) {
                 return;
             }
         }
         
-        setLocation(l);
+        setLocation(x, y);
     }
     
     /**
@@ -122,4 +302,25 @@ public abstract class EntityEnemy extends EntityAlive {
         return name;
     }
     
+    /**
+     * The levels of detail in which an enemy can be simulated.
+     */
+    public enum Detail {
+        /**
+         * The enemy looks around and plans its path on every turn.
+         */
+        FULL,
+        
+        /**
+         * The enemy only looks around and plans its path every few turns, and
+         * otherwise heads straight for where it last saw its target.
+         */
+        REDUCED,
+        
+        /**
+         * The enemy does nothing but check every so often whether it has come
+         * close enough to anything to wake up.
+         */
+        DORMANT
+    }
 }
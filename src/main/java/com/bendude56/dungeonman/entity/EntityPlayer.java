@@ -2,16 +2,17 @@ package com.bendude56.dungeonman.entity;
 
 import java.awt.Graphics;
 import java.awt.Image;
-import java.util.Random;
 
 import com.bendude56.dungeonman.DebugCheats;
-import com.bendude56.dungeonman.GameInstance;
 import com.bendude56.dungeonman.gfx.ImageUtil;
 import com.bendude56.dungeonman.item.inventory.Inventory;
 import com.bendude56.dungeonman.ui.GameFrame;
+import com.bendude56.dungeonman.world.World;
+import com.bendude56.dungeonman.world.TileVisitor;
 import com.bendude56.dungeonman.world.WorldLocation;
+import com.bendude56.dungeonman.world.fov.FieldOfView;
+import com.bendude56.dungeonman.world.fov.FieldOfViewCache;
 import com.bendude56.dungeonman.world.tile.Tile;
-import com.bendude56.dungeonman.world.tile.TileSecretDoor;
 
 /**
  * @author Benjamin C. Thomas
@@ -21,6 +22,34 @@ public class EntityPlayer extends EntityAlive {
     public static final Image humanSprite = ImageUtil.loadImage("/entity/player/human.png");
     
     private Inventory inventory;
+    private final FieldOfViewCache fieldOfView = new FieldOfViewCache();
+    
+    // The tiles from which this player can be seen, the world they lie in and
+    // the version of the tiles the field was computed over
+    private FieldOfView sight;
+    private World sightWorld;
+    private int sightVersion;
+    
+    private boolean searchFound;
+    
+    private final TileVisitor secretDoorNoticer = new TileVisitor() {
+        @Override
+        public void visit(int x, int y) {
+            int chance = 30 - getStats().getIntelligence();
+            
+            if (chance <= 0 || getWorld().getRandom().nextInt(chance) == 0) {
+                logMessage("Something about one of the walls nearby seems off to you");
+            }
+        }
+    };
+    
+    private final TileVisitor secretDoorSearcher = new TileVisitor() {
+        @Override
+        public void visit(int x, int y) {
+            logMessage("A wall about " + AIController.getDistance(getX(), getY(), x, y) + " tiles away seems off");
+            searchFound = true;
+        }
+    };
     
     public EntityPlayer(WorldLocation l, EntityStats stats) {
         super(l, stats);
@@ -37,25 +66,47 @@ public class EntityPlayer extends EntityAlive {
     
     @Override
     public void doTurn() {
+        World w = getWorld();
+        
         // Update world visibility
-        getLocation().world.clearTileVisibility();
+        w.clearTileVisibility();
+        fieldOfView.computeFieldOfView(w, getX(), getY(), getViewDistance());
         
-        for (int y = getLocation().y + getViewDistance(); y >= getLocation().y - getViewDistance(); y--) {
-            int deltaX = getViewDistance() - Math.abs(y - getLocation().y);
-            for (int x = getLocation().x + deltaX; x >= getLocation().x - deltaX; x--) {
-                if (AIController.checkVisibility(getLocation(), new WorldLocation(null, x, y))) {
-                    getLocation().world.setTileVisible(x, y, true);
-                }
-                
-                if (new WorldLocation(getLocation().world, x, y).getTile() instanceof TileSecretDoor) {
-                    int chance = 30 - getStats().getIntelligence();
-                    
-                    if (chance <= 0 || new Random().nextInt(chance) == 0) {
-                        logMessage("Something about one of the walls nearby seems off to you");
-                    }
-                }
-            }
-        }
+        // Passively notice secret doors nearby
+        w.forEachTileNear(Tile.secretDoor, getX(), getY(), getViewDistance(), secretDoorNoticer);
+    }
+    
+    /**
+     * Gets the field of view from this player's location which their world
+     * keeps up to date, so that enemies can tell whether they can see this
+     * player by looking up their own tile. Returns null if this player or any
+     * of the tiles around them have changed since it was computed.
+     */
+    public FieldOfView getSightField() {
+        if (sight == null || getWorld() != sightWorld || getX() != sight.getOriginX() || getY() != sight.getOriginY())
+            return null;
+        
+        int r = sight.getRadius();
+        
+        if (sightWorld.getTileVersion(getX() - r, getY() - r, getX() + r, getY() + r) != sightVersion)
+            return null;
+        
+        return sight;
+    }
+    
+    /**
+     * Sets the field of view returned by {@link #getSightField()}.
+     * 
+     * @param sight The field of view from this player's current location in
+     *            their current world, or null to forget it
+     * @param version The {@link World#getTileVersion(int, int, int, int) tile
+     *            version} of the area covered by the field of view at the time
+     *            it was computed
+     */
+    public void setSightField(FieldOfView sight, int version) {
+        this.sight = sight;
+        this.sightWorld = getWorld();
+        this.sightVersion = version;
     }
     
     /**
@@ -73,20 +124,10 @@ public class EntityPlayer extends EntityAlive {
      * log.
      */
     public void doSearch() {
-        boolean done = false;
-        
-        for (int y = getLocation().y + getSearchDistance(); y >= getLocation().y - getSearchDistance(); y--) {
-            int deltaX = getSearchDistance() - Math.abs(y - getLocation().y);
-            for (int x = getLocation().x + deltaX; x >= getLocation().x - deltaX; x--) {
-                if (new WorldLocation(getLocation().world, x, y).getTile() instanceof TileSecretDoor) {
-                    logMessage("A wall about " + AIController.getDistance(getLocation(), new WorldLocation(getWorld(), x, y))
-                            + " tiles away seems off");
-                    done = true;
-                }
-            }
-        }
+        searchFound = false;
+        getWorld().forEachTileNear(Tile.secretDoor, getX(), getY(), getSearchDistance(), secretDoorSearcher);
         
-        if (!done) {
+        if (!searchFound) {
             logMessage("You don't find anything of interest");
         }
     }
@@ -109,20 +150,15 @@ public class EntityPlayer extends EntityAlive {
     }
     
     @Override
-    public int calculateOutgoingDamage() {
-        if (GameInstance.getActiveInstance().getDifficulty() >= 5) {
-            return 1;
-        } else {
-            return super.calculateOutgoingDamage();
-        }
-    }
-    
-    @Override
-    public int calculateOutgoingDeviation(int damage) {
-        if (GameInstance.getActiveInstance().getDifficulty() >= 5) {
-            return 0;
+    protected void updateCombatProfile(CombatProfile p, int difficulty) {
+        EntityStats stats = getStats();
+        
+        // On the harder difficulties, the player's attacks barely scratch
+        // anything, but their defense always protects them
+        if (difficulty >= 5) {
+            p.set(1, 0, stats.getDefense(), true);
         } else {
-            return super.calculateOutgoingDeviation(damage);
+            p.set(stats.calculateOutgoingDamage(10), stats.getStrength(), stats.getDefense(), true);
         }
     }
     
@@ -142,7 +178,7 @@ public class EntityPlayer extends EntityAlive {
             super.doDamage(damage);
         
         if (isDead()) {
-            getLocation().setTile(Tile.gravestone);
+            getWorld().setTile(getX(), getY(), Tile.gravestone);
         }
     }
     
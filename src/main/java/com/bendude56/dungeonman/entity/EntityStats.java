@@ -14,6 +14,10 @@ public class EntityStats {
     
     private int baseMaxHp;
     
+    // Counts changes to these statistics, so that anything worked out from
+    // them can tell when it is out of date
+    private int version;
+    
     public EntityStats(int magic, int strength, int defense, int agility, int endurance, int intelligence, int baseMaxHp) {
         this.magic = magic;
         this.strength = strength;
@@ -30,6 +34,7 @@ public class EntityStats {
     
     public void setMagic(int magic) {
         this.magic = magic;
+        version++;
     }
     
     public int getStrength() {
@@ -38,6 +43,7 @@ public class EntityStats {
     
     public void setStrength(int strength) {
         this.strength = strength;
+        version++;
     }
     
     public int getDefense() {
@@ -46,6 +52,7 @@ public class EntityStats {
     
     public void setDefense(int defense) {
         this.defense = defense;
+        version++;
     }
     
     public int getAgility() {
@@ -54,6 +61,7 @@ public class EntityStats {
     
     public void setAgility(int agility) {
         this.agility = agility;
+        version++;
     }
     
     public int getEndurance() {
@@ -62,6 +70,7 @@ public class EntityStats {
     
     public void setEndurance(int endurance) {
         this.endurance = endurance;
+        version++;
     }
     
     public int getIntelligence() {
@@ -70,6 +79,7 @@ public class EntityStats {
     
     public void setIntelligence(int intelligence) {
         this.intelligence = intelligence;
+        version++;
     }
     
     public int getBaseMaxHp() {
@@ -78,6 +88,14 @@ public class EntityStats {
     
     public void setBaseMaxHp(int baseMaxHp) {
         this.baseMaxHp = baseMaxHp;
+        version++;
+    }
+    
+    /**
+     * Gets a number that changes whenever any of these statistics do.
+     */
+    public int getVersion() {
+        return version;
     }
     
     public int calculateMaxHp() {
@@ -88,23 +106,43 @@ public class EntityStats {
         if (this.agility == 0)
             return 500;
         else
-            return (int) (500 / Math.pow(this.agility, 2));
+            return (int) (500 / ((long) this.agility * this.agility));
     }
     
     public int calculateOutgoingDamage(int damage) {
-        return damage + (int) (((double) damage / 30) * this.strength);
+        return outgoingDamage(damage, this.strength);
     }
     
     public int calculateIncomingDamage(int damage) {
-        return Math.max((int) (damage - ((double) damage / 40) * this.defense), 0);
+        return incomingDamage(damage, this.defense);
     }
     
     public int calculateOutgoingDeviation(int damage) {
-        return (int) (((double) damage / 10) * this.strength);
+        return outgoingDeviation(damage, this.strength);
     }
     
     public int calculateIncomingDeviation(int damage, int deviation) {
-        return deviation - (int) (((double) damage / 15) * this.defense);
+        return incomingDeviation(damage, deviation, this.defense);
+    }
+    
+    // The formulas themselves, which are shared with CombatProfile. These are
+    // done in integer arithmetic, rounding towards zero as the old floating
+    // point versions did.
+    
+    static int outgoingDamage(int damage, int strength) {
+        return damage + damage * strength / 30;
+    }
+    
+    static int incomingDamage(int damage, int defense) {
+        return Math.max((damage * 40 - damage * defense) / 40, 0);
+    }
+    
+    static int outgoingDeviation(int damage, int strength) {
+        return damage * strength / 10;
+    }
+    
+    static int incomingDeviation(int damage, int deviation, int defense) {
+        return deviation - damage * defense / 15;
     }
     
 }
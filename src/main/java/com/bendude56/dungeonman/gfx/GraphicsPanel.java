@@ -12,8 +12,10 @@ import javax.swing.JPanel;
 import com.bendude56.dungeonman.DebugCheats;
 import com.bendude56.dungeonman.GameInstance;
 import com.bendude56.dungeonman.entity.Entity;
+import com.bendude56.dungeonman.world.EntityVisitor;
 import com.bendude56.dungeonman.world.tile.Tile;
 import com.bendude56.dungeonman.world.tile.TileState;
+import com.bendude56.dungeonman.world.tile.TileStateView;
 
 /**
  * @author Benjamin C. Thomas
@@ -25,6 +27,9 @@ public class GraphicsPanel extends JPanel {
     public Image img;
     public int centerX, centerY;
     
+    private final TileStateView tileView = new TileStateView();
+    private final EntityRenderer entityRenderer = new EntityRenderer();
+    
     public GraphicsPanel() {
         this.addComponentListener(new ComponentListener() {
             @Override
@@ -69,7 +74,7 @@ public class GraphicsPanel extends JPanel {
                     for (int x = viewpointX / (Tile.TILE_WIDTH + 1); x <= (viewpointX + img.getWidth(null))
                             / (Tile.TILE_WIDTH + 1); x++) {
                         if (x >= 0 && x < GameInstance.getActiveWorld().getWidth()) {
-                            TileState state = GameInstance.getActiveWorld().getTileState(x, y);
+                            TileState state = tileView.moveTo(GameInstance.getActiveWorld(), x, y);
                             
                             if (GameInstance.getActiveWorld().isTileKnown(x, y) || DebugCheats.xRay) {
                                 state.getTileType().render(g, x * (Tile.TILE_WIDTH + 1) - viewpointX,
@@ -90,13 +95,15 @@ public class GraphicsPanel extends JPanel {
                 }
             }
             
-            for (Entity e : GameInstance.getActiveWorld().getEntities(viewpointX / (Tile.TILE_WIDTH + 1),
+            entityRenderer.g = g;
+            entityRenderer.viewpointX = viewpointX;
+            entityRenderer.viewpointY = viewpointY;
+            
+            GameInstance.getActiveWorld().forEachEntityIn(viewpointX / (Tile.TILE_WIDTH + 1),
                     viewpointY / (Tile.TILE_HEIGHT + 1), (viewpointX + img.getWidth(null)) / (Tile.TILE_WIDTH + 1),
-                    (viewpointY + img.getHeight(null)) / (Tile.TILE_HEIGHT + 1))) {
-                if (e.getLocation().world.isTileVisible(e.getLocation()) || DebugCheats.xRay)
-                    e.render(g, e.getLocation().x * (Tile.TILE_WIDTH + 1) - viewpointX, e.getLocation().y
-                            * (Tile.TILE_HEIGHT + 1) - viewpointY);
-            }
+                    (viewpointY + img.getHeight(null)) / (Tile.TILE_HEIGHT + 1), entityRenderer);
+            
+            entityRenderer.g = null;
         }
     }
     
@@ -108,4 +115,18 @@ public class GraphicsPanel extends JPanel {
             g.drawImage(img, 0, 0, null);
     }
     
+    /**
+     * Renders each visible entity it is handed, relative to the viewpoint of
+     * the current frame.
+     */
+    private static class EntityRenderer implements EntityVisitor {
+        private Graphics g;
+        private int viewpointX, viewpointY;
+        
+        @Override
+        public void visit(Entity e) {
+            if (e.getWorld().isTileVisible(e.getX(), e.getY()) || DebugCheats.xRay)
+                e.render(g, e.getX() * (Tile.TILE_WIDTH + 1) - viewpointX, e.getY() * (Tile.TILE_HEIGHT + 1) - viewpointY);
+        }
+    }
 }
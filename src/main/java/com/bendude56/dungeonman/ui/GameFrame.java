@@ -455,7 +455,7 @@ public class GameFrame extends JFrame {
     }
     
     public void doTurn() {
-        GameInstance.getActiveWorld().doTurn();
+        GameInstance.getActiveInstance().doTurn();
         
         if (activeInventory != null)
             activeInventory.doUpdate();
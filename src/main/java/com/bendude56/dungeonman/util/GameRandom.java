@@ -0,0 +1,125 @@
+package com.bendude56.dungeonman.util;
+
+/**
+ * A fast, seedable random number generator using the SplitMix64 algorithm.
+ * Unlike {@link java.util.Random}, it is not synchronized and can be
+ * {@link #split() split} into independent generators, so that each part of
+ * the game that needs random numbers, such as each floor, can draw from one
+ * of its own. Two generators created from the same seed always produce the
+ * same numbers, and so do the generators split off from them.
+ * <p>
+ * A generator is not safe to use from more than one thread at a time.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class GameRandom {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    
+    // Seeds for generators created without one, so that no two of them start
+    // out the same
+    private static long nextDefaultSeed = System.nanoTime();
+    
+    private long seed;
+    private final long gamma;
+    
+    /**
+     * Creates a new generator with a seed that differs from that of every
+     * other generator created this way.
+     */
+    public GameRandom() {
+        this(createDefaultSeed());
+    }
+    
+    public GameRandom(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+    
+    private GameRandom(long seed, long gamma) {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+    
+    private static synchronized long createDefaultSeed() {
+        nextDefaultSeed += 2 * GOLDEN_GAMMA;
+        return mix64(nextDefaultSeed);
+    }
+    
+    /**
+     * Creates a new generator whose numbers are independent of those of this
+     * generator. This advances this generator, so splitting it again creates
+     * a different generator.
+     */
+    public GameRandom split() {
+        return new GameRandom(nextLong(), mixGamma(nextSeed()));
+    }
+    
+    /**
+     * Gets a random long, with every value equally likely.
+     */
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+    
+    /**
+     * Gets a random integer, with every value equally likely.
+     */
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+    
+    /**
+     * Gets a random integer from 0 (inclusive) to the specified bound
+     * (exclusive), with every value equally likely.
+     * 
+     * @param bound The upper bound. MUST be positive.
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive!");
+        }
+        
+        int r = (int) (nextLong() >>> 33);
+        int m = bound - 1;
+        
+        if ((bound & m) == 0)
+            return (int) ((bound * (long) r) >> 31);
+        
+        // Throw away the few values at the very top that would make some
+        // results more likely than others
+        for (int u = r; u - (r = u % bound) + m < 0; u = (int) (nextLong() >>> 33))
+            ;
+        
+        return r;
+    }
+    
+    /**
+     * Gets a random boolean, with either value equally likely.
+     */
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+    
+    private long nextSeed() {
+        return seed += gamma;
+    }
+    
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    /**
+     * Turns a seed into the step of a split-off generator. The step MUST be
+     * odd, and is kept away from values with too few bit transitions, which
+     * produce poorly mixed numbers.
+     */
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        
+        return (Long.bitCount(z ^ (z >>> 1)) < 24) ? z ^ 0xAAAAAAAAAAAAAAAAL : z;
+    }
+}
@@ -0,0 +1,224 @@
+package com.bendude56.dungeonman.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map keyed by primitive integers. Unlike a
+ * {@link java.util.HashMap}, keys are never boxed and lookups do not allocate,
+ * which makes this map suitable for sparse per-cell data keyed by packed
+ * coordinates. Null values are not permitted.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class IntHashMap<V> {
+    private static final int MIN_CAPACITY = 16;
+    
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    
+    public IntHashMap() {
+        this(MIN_CAPACITY);
+    }
+    
+    public IntHashMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        
+        while (capacity * 3 / 4 < expectedSize)
+            capacity <<= 1;
+        
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+    
+    /**
+     * Gets the number of mappings in this map.
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Gets a boolean value representing whether this map contains no mappings.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Gets the value mapped to the specified key.
+     * 
+     * @param key The key to look up.
+     * 
+     * @return The value mapped to the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = slot(key);
+        
+        while (values[i] != null) {
+            if (keys[i] == key)
+                return (V) values[i];
+            i = (i + 1) & mask;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Checks whether a value is mapped to the specified key.
+     */
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+    
+    /**
+     * Maps a value to the specified key, replacing any existing mapping.
+     * 
+     * @param key The key to map the value to.
+     * @param value The value to be mapped. MUST NOT be null.
+     * 
+     * @return The value previously mapped to the key, or null if there was
+     *         none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null values are not permitted!");
+        
+        int i = slot(key);
+        
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        
+        keys[i] = key;
+        values[i] = value;
+        
+        if (++size > (mask + 1) * 3 / 4)
+            resize((mask + 1) * 2);
+        
+        return null;
+    }
+    
+    /**
+     * Removes the mapping for the specified key, if there is one.
+     * 
+     * @return The value that was mapped to the key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (size == 0)
+            return null;
+        
+        int i = slot(key);
+        
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                
+                values[i] = null;
+                size--;
+                shiftBack(i);
+                
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Removes all mappings from this map.
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(values, null);
+            size = 0;
+        }
+    }
+    
+    /**
+     * Gets the number of internal slots in this map. Together with
+     * {@link #keyAt(int)} and {@link #valueAt(int)}, this allows the mappings to
+     * be iterated without allocating an iterator. The map MUST NOT be modified
+     * during such an iteration.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+    
+    /**
+     * Gets the key stored in the specified slot. Only meaningful if
+     * {@link #valueAt(int)} returns a non-null value for the same slot.
+     */
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+    
+    /**
+     * Gets the value stored in the specified slot, or null if the slot is
+     * empty.
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+    
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+    
+    /**
+     * Closes the gap left by a removed entry so that linear probing never has
+     * to skip over deleted slots.
+     */
+    private void shiftBack(int gap) {
+        int i = (gap + 1) & mask;
+        
+        while (values[i] != null) {
+            int home = slot(keys[i]);
+            
+            // Move the entry into the gap if the gap lies between the entry's
+            // home slot and its current slot
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                values[i] = null;
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+    
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(oldKeys[i]);
+                
+                while (values[j] != null)
+                    j = (j + 1) & mask;
+                
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package com.bendude56.dungeonman.world;
+
+import java.util.Arrays;
+
+import com.bendude56.dungeonman.util.IntHashMap;
+import com.bendude56.dungeonman.world.tile.Tile;
+import com.bendude56.dungeonman.world.tile.TileMetadata;
+
+/**
+ * Stores the tiles of a {@link World} in square chunks which are only
+ * allocated once something is written to them. Every chunk starts out as a
+ * single shared chunk made entirely of walls that nobody has seen, so the
+ * memory used by a world grows with the area that has been dug out and
+ * explored rather than with the size of the world. Metadata is kept in a
+ * sparse map so that only doors, stairs and the like take up any space.
+ * <p>
+ * Each chunk also keeps one bitset per tile property (see
+ * {@link Tile#getProperties(int)}), so that hot loops can test whether a
+ * tile is transparent, passable or carvable without looking up its type.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class ChunkedWorldStorage implements WorldStorage {
+    public static final int CHUNK_SHIFT = 5;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CHUNK_AREA = CHUNK_SIZE * CHUNK_SIZE;
+    
+    // Shared contents of untouched chunks. These MUST NOT be modified.
+    private static final short[] WALL_TILES = new short[CHUNK_AREA];
+    private static final long[] NO_BITS = new long[CHUNK_AREA >> 6];
+    private static final long[] ALL_BITS = new long[CHUNK_AREA >> 6];
+    private static final long[][] WALL_PROPERTIES = new long[Tile.PROPERTY_COUNT][];
+    private static final Chunk SENTINEL;
+    
+    static {
+        Arrays.fill(WALL_TILES, (short) Tile.wall.getTileId());
+        Arrays.fill(ALL_BITS, -1L);
+        
+        for (int p = 0; p < Tile.PROPERTY_COUNT; p++) {
+            WALL_PROPERTIES[p] = ((Tile.getProperties(Tile.wall.getTileId()) & (1 << p)) != 0) ? ALL_BITS : NO_BITS;
+        }
+        
+        SENTINEL = new Chunk();
+    }
+    
+    private final int width, height;
+    private final int chunksX, chunksY;
+    private final Chunk[] chunks;
+    
+    // Keyed by (y * width + x)
+    private final IntHashMap<TileMetadata> metadata = new IntHashMap<TileMetadata>();
+    
+    public ChunkedWorldStorage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunksY = (height + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunks = new Chunk[chunksX * chunksY];
+        
+        Arrays.fill(chunks, SENTINEL);
+    }
+    
+    /**
+     * Gets the width of the stored area, in tiles.
+     */
+    @Override
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * Gets the height of the stored area, in tiles.
+     */
+    @Override
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * Gets the number of chunks that have their own storage, as opposed to
+     * being represented by the shared, untouched wall chunk.
+     */
+    public int getAllocatedChunkCount() {
+        int count = 0;
+        
+        for (Chunk c : chunks) {
+            if (c != SENTINEL)
+                count++;
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Gets the ID of the tile at the specified location. The location MUST be
+     * within bounds.
+     */
+    @Override
+    public int getTileId(int x, int y) {
+        return chunkAt(x, y).tiles[cellIndex(x, y)];
+    }
+    
+    /**
+     * Sets the ID of the tile at the specified location. The location MUST be
+     * within bounds.
+     */
+    @Override
+    public void setTileId(int x, int y, int id) {
+        Chunk c = chunkAt(x, y);
+        int i = cellIndex(x, y);
+        
+        if (c.tiles[i] == id)
+            return;
+        
+        writableTiles(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT)[i] = (short) id;
+        c = chunkAt(x, y);
+        
+        int properties = Tile.getProperties(id);
+        
+        for (int p = 0; p < Tile.PROPERTY_COUNT; p++) {
+            boolean set = (properties & (1 << p)) != 0;
+            
+            if (((c.properties[p][i >> 6] & (1L << i)) != 0) != set) {
+                if (set) {
+                    c.writableProperty(p)[i >> 6] |= 1L << i;
+                } else {
+                    c.writableProperty(p)[i >> 6] &= ~(1L << i);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Sets every tile within a rectangle to the specified ID. The rectangle
+     * MUST be within bounds, with x1 <= x2 and y1 <= y2.
+     */
+    @Override
+    public void fillTileIds(int x1, int y1, int x2, int y2, int id) {
+        short wallId = WALL_TILES[0];
+        
+        for (int cy = y1 >> CHUNK_SHIFT; cy <= y2 >> CHUNK_SHIFT; cy++) {
+            for (int cx = x1 >> CHUNK_SHIFT; cx <= x2 >> CHUNK_SHIFT; cx++) {
+                int lx1 = Math.max(x1 - (cx << CHUNK_SHIFT), 0);
+                int ly1 = Math.max(y1 - (cy << CHUNK_SHIFT), 0);
+                int lx2 = Math.min(x2 - (cx << CHUNK_SHIFT), CHUNK_MASK);
+                int ly2 = Math.min(y2 - (cy << CHUNK_SHIFT), CHUNK_MASK);
+                Chunk c = chunks[cy * chunksX + cx];
+                
+                if (lx1 == 0 && ly1 == 0 && lx2 == CHUNK_MASK && ly2 == CHUNK_MASK && id == wallId) {
+                    // Walling over a whole chunk returns it to the shared
+                    // state, releasing it entirely if it was never seen
+                    if (c.known == NO_BITS && c.visible == NO_BITS) {
+                        chunks[cy * chunksX + cx] = SENTINEL;
+                    } else {
+                        c.tiles = WALL_TILES;
+                        System.arraycopy(WALL_PROPERTIES, 0, c.properties, 0, Tile.PROPERTY_COUNT);
+                    }
+                } else if (c.tiles == WALL_TILES && id == wallId) {
+                    // Already all walls; nothing to do
+                } else {
+                    short[] tiles = writableTiles(cx, cy);
+                    
+                    for (int ly = ly1; ly <= ly2; ly++) {
+                        Arrays.fill(tiles, (ly << CHUNK_SHIFT) + lx1, (ly << CHUNK_SHIFT) + lx2 + 1, (short) id);
+                    }
+                    
+                    fillProperties(chunks[cy * chunksX + cx], lx1, ly1, lx2, ly2, Tile.getProperties(id));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Checks whether every tile within a rectangle has the specified ID. The
+     * rectangle MUST be within bounds, with x1 <= x2 and y1 <= y2.
+     */
+    @Override
+    public boolean isFilled(int x1, int y1, int x2, int y2, int id) {
+        for (int cy = y1 >> CHUNK_SHIFT; cy <= y2 >> CHUNK_SHIFT; cy++) {
+            for (int cx = x1 >> CHUNK_SHIFT; cx <= x2 >> CHUNK_SHIFT; cx++) {
+                short[] tiles = chunks[cy * chunksX + cx].tiles;
+                
+                if (tiles == WALL_TILES) {
+                    if (id != WALL_TILES[0])
+                        return false;
+                    continue;
+                }
+                
+                int lx1 = Math.max(x1 - (cx << CHUNK_SHIFT), 0);
+                int ly1 = Math.max(y1 - (cy << CHUNK_SHIFT), 0);
+                int lx2 = Math.min(x2 - (cx << CHUNK_SHIFT), CHUNK_MASK);
+                int ly2 = Math.min(y2 - (cy << CHUNK_SHIFT), CHUNK_MASK);
+                
+                for (int ly = ly1; ly <= ly2; ly++) {
+                    for (int i = (ly << CHUNK_SHIFT) + lx1; i <= (ly << CHUNK_SHIFT) + lx2; i++) {
+                        if (tiles[i] != id)
+                            return false;
+                    }
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Sets or clears every property bit within a rectangle of a chunk to match
+     * the specified property flags.
+     */
+    private static void fillProperties(Chunk c, int lx1, int ly1, int lx2, int ly2, int properties) {
+        long rowMask = (-1L >>> (63 - lx2)) & (-1L << lx1);
+        
+        for (int p = 0; p < Tile.PROPERTY_COUNT; p++) {
+            boolean set = (properties & (1 << p)) != 0;
+            
+            // Shared bitsets may already have the right value everywhere
+            if (c.properties[p] == (set ? ALL_BITS : NO_BITS))
+                continue;
+            
+            long[] bits = c.writableProperty(p);
+            
+            for (int ly = ly1; ly <= ly2; ly++) {
+                long mask = rowMask << ((ly & 1) << CHUNK_SHIFT);
+                
+                if (set) {
+                    bits[ly >> 1] |= mask;
+                } else {
+                    bits[ly >> 1] &= ~mask;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public boolean hasProperty(int x, int y, int property) {
+        int i = cellIndex(x, y);
+        return (chunkAt(x, y).properties[Integer.numberOfTrailingZeros(property)][i >> 6] & (1L << i)) != 0;
+    }
+    
+    @Override
+    public boolean allHaveProperty(int x1, int y1, int x2, int y2, int property) {
+        int p = Integer.numberOfTrailingZeros(property);
+        
+        for (int cy = y1 >> CHUNK_SHIFT; cy <= y2 >> CHUNK_SHIFT; cy++) {
+            for (int cx = x1 >> CHUNK_SHIFT; cx <= x2 >> CHUNK_SHIFT; cx++) {
+                long[] bits = chunks[cy * chunksX + cx].properties[p];
+                
+                if (bits == ALL_BITS)
+                    continue;
+                if (bits == NO_BITS)
+                    return false;
+                
+                int lx1 = Math.max(x1 - (cx << CHUNK_SHIFT), 0);
+                int ly1 = Math.max(y1 - (cy << CHUNK_SHIFT), 0);
+                int lx2 = Math.min(x2 - (cx << CHUNK_SHIFT), CHUNK_MASK);
+                int ly2 = Math.min(y2 - (cy << CHUNK_SHIFT), CHUNK_MASK);
+                long rowMask = (-1L >>> (63 - lx2)) & (-1L << lx1);
+                
+                for (int ly = ly1; ly <= ly2; ly++) {
+                    long mask = rowMask << ((ly & 1) << CHUNK_SHIFT);
+                    
+                    if ((bits[ly >> 1] & mask) != mask)
+                        return false;
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    @Override
+    public TileMetadata getMetadata(int x, int y) {
+        TileMetadata m = metadata.get(y * width + x);
+        return (m == null) ? TileMetadata.NONE : m;
+    }
+    
+    @Override
+    public void setMetadata(int x, int y, TileMetadata m) {
+        // Plain metadata carries no data, so there's no need to store it
+        if (m == null || m.getClass() == TileMetadata.class) {
+            metadata.remove(y * width + x);
+        } else {
+            metadata.put(y * width + x, m);
+        }
+    }
+    
+    @Override
+    public void clearMetadata(int x1, int y1, int x2, int y2) {
+        for (int y = y1; y <= y2 && !metadata.isEmpty(); y++) {
+            for (int i = y * width + x1; i <= y * width + x2; i++) {
+                metadata.remove(i);
+            }
+        }
+    }
+    
+    @Override
+    public boolean isKnown(int x, int y) {
+        int i = cellIndex(x, y);
+        return (chunkAt(x, y).known[i >> 6] & (1L << i)) != 0;
+    }
+    
+    @Override
+    public void setKnown(int x, int y) {
+        int i = cellIndex(x, y);
+        
+        if ((chunkAt(x, y).known[i >> 6] & (1L << i)) == 0)
+            writableChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT).writableKnown()[i >> 6] |= 1L << i;
+    }
+    
+    @Override
+    public boolean isVisible(int x, int y) {
+        int i = cellIndex(x, y);
+        return (chunkAt(x, y).visible[i >> 6] & (1L << i)) != 0;
+    }
+    
+    @Override
+    public void setVisible(int x, int y, boolean visible) {
+        int i = cellIndex(x, y);
+        Chunk c = chunkAt(x, y);
+        
+        if (((c.visible[i >> 6] & (1L << i)) != 0) == visible)
+            return;
+        
+        if (visible) {
+            writableChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT).writableVisible()[i >> 6] |= 1L << i;
+        } else {
+            c.visible[i >> 6] &= ~(1L << i);
+        }
+    }
+    
+    /**
+     * Checks whether any tile within a rectangle is visible. The rectangle
+     * MUST be within bounds, with x1 <= x2 and y1 <= y2.
+     */
+    @Override
+    public boolean isAnyVisible(int x1, int y1, int x2, int y2) {
+        return isAnyBitSet(false, x1, y1, x2, y2);
+    }
+    
+    /**
+     * Checks whether any tile within a rectangle is known. The rectangle MUST
+     * be within bounds, with x1 <= x2 and y1 <= y2.
+     */
+    @Override
+    public boolean isAnyKnown(int x1, int y1, int x2, int y2) {
+        return isAnyBitSet(true, x1, y1, x2, y2);
+    }
+    
+    private boolean isAnyBitSet(boolean known, int x1, int y1, int x2, int y2) {
+        for (int cy = y1 >> CHUNK_SHIFT; cy <= y2 >> CHUNK_SHIFT; cy++) {
+            for (int cx = x1 >> CHUNK_SHIFT; cx <= x2 >> CHUNK_SHIFT; cx++) {
+                Chunk c = chunks[cy * chunksX + cx];
+                long[] bits = known ? c.known : c.visible;
+                
+                if (bits == NO_BITS)
+                    continue;
+                
+                int lx1 = Math.max(x1 - (cx << CHUNK_SHIFT), 0);
+                int ly1 = Math.max(y1 - (cy << CHUNK_SHIFT), 0);
+                int lx2 = Math.min(x2 - (cx << CHUNK_SHIFT), CHUNK_MASK);
+                int ly2 = Math.min(y2 - (cy << CHUNK_SHIFT), CHUNK_MASK);
+                
+                // Each chunk row occupies half of a word
+                long rowMask = (-1L >>> (63 - lx2)) & (-1L << lx1);
+                
+                for (int ly = ly1; ly <= ly2; ly++) {
+                    int shift = (ly & 1) << CHUNK_SHIFT;
+                    
+                    if ((bits[ly >> 1] & (rowMask << shift)) != 0)
+                        return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    private Chunk chunkAt(int x, int y) {
+        return chunks[(y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT)];
+    }
+    
+    private static int cellIndex(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+    }
+    
+    private Chunk writableChunk(int cx, int cy) {
+        Chunk c = chunks[cy * chunksX + cx];
+        
+        if (c == SENTINEL) {
+            c = new Chunk();
+            chunks[cy * chunksX + cx] = c;
+        }
+        
+        return c;
+    }
+    
+    private short[] writableTiles(int cx, int cy) {
+        Chunk c = writableChunk(cx, cy);
+        
+        if (c.tiles == WALL_TILES)
+            c.tiles = WALL_TILES.clone();
+        
+        return c.tiles;
+    }
+    
+    private static class Chunk {
+        private short[] tiles = WALL_TILES;
+        private long[] known = NO_BITS;
+        private long[] visible = NO_BITS;
+        private long[][] properties = WALL_PROPERTIES.clone();
+        
+        private long[] writableProperty(int p) {
+            if (properties[p] == NO_BITS || properties[p] == ALL_BITS)
+                properties[p] = properties[p].clone();
+            return properties[p];
+        }
+        
+        private long[] writableKnown() {
+            if (known == NO_BITS)
+                known = new long[NO_BITS.length];
+            return known;
+        }
+        
+        private long[] writableVisible() {
+            if (visible == NO_BITS)
+                visible = new long[NO_BITS.length];
+            return visible;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.bendude56.dungeonman.world;
+
+import java.util.Arrays;
+
+import com.bendude56.dungeonman.entity.Entity;
+
+/**
+ * A uniform grid of buckets which indexes the entities of a {@link World} for
+ * range queries. Each draw order gets its own layer of buckets, and layers are
+ * visited from the lowest draw order to the highest, so the entities found by
+ * a query come out in draw order without needing to be sorted.
+ * <p>
+ * An entity's draw order MUST NOT change while it is in the grid.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+class EntityGrid {
+    static final int BUCKET_SHIFT = 4;
+    
+    private final int width, height;
+    private final int bucketsX, bucketsY;
+    
+    // Layers are kept sorted by draw order
+    private int[] layerOrders = new int[0];
+    private Bucket[][] layers = new Bucket[0][];
+    
+    EntityGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.bucketsX = (width + (1 << BUCKET_SHIFT) - 1) >> BUCKET_SHIFT;
+        this.bucketsY = (height + (1 << BUCKET_SHIFT) - 1) >> BUCKET_SHIFT;
+    }
+    
+    /**
+     * Adds an entity at the specified location, which MUST be within bounds.
+     */
+    void add(Entity e, int x, int y) {
+        Bucket[] layer = getLayer(e.getDrawOrder(), true);
+        int b = (y >> BUCKET_SHIFT) * bucketsX + (x >> BUCKET_SHIFT);
+        
+        if (layer[b] == null)
+            layer[b] = new Bucket();
+        
+        layer[b].add(e, y * width + x);
+    }
+    
+    /**
+     * Removes an entity from the specified location, which MUST be within
+     * bounds.
+     */
+    void remove(Entity e, int x, int y) {
+        Bucket[] layer = getLayer(e.getDrawOrder(), false);
+        
+        if (layer != null) {
+            Bucket bucket = layer[(y >> BUCKET_SHIFT) * bucketsX + (x >> BUCKET_SHIFT)];
+            
+            if (bucket != null)
+                bucket.remove(e);
+        }
+    }
+    
+    void clear() {
+        layerOrders = new int[0];
+        layers = new Bucket[0][];
+    }
+    
+    /**
+     * Visits every entity within a rectangle, in draw order. The rectangle
+     * MUST be within bounds, with x1 <= x2 and y1 <= y2.
+     */
+    void forEach(int x1, int y1, int x2, int y2, EntityVisitor visitor) {
+        for (Bucket[] layer : layers) {
+            for (int by = y1 >> BUCKET_SHIFT; by <= y2 >> BUCKET_SHIFT; by++) {
+                for (int bx = x1 >> BUCKET_SHIFT; bx <= x2 >> BUCKET_SHIFT; bx++) {
+                    Bucket bucket = layer[by * bucketsX + bx];
+                    
+                    if (bucket == null)
+                        continue;
+                    
+                    // Buckets entirely inside the rectangle need no per-entity
+                    // checks
+                    boolean inside = bx << BUCKET_SHIFT >= x1 && by << BUCKET_SHIFT >= y1
+                            && ((bx + 1) << BUCKET_SHIFT) - 1 <= x2 && ((by + 1) << BUCKET_SHIFT) - 1 <= y2;
+                    
+                    for (int i = 0; i < bucket.size; i++) {
+                        if (!inside) {
+                            int x = bucket.cells[i] % width;
+                            int y = bucket.cells[i] / width;
+                            
+                            if (x < x1 || x > x2 || y < y1 || y > y2)
+                                continue;
+                        }
+                        
+                        visitor.visit(bucket.entities[i]);
+                    }
+                }
+            }
+        }
+    }
+    
+    private Bucket[] getLayer(int drawOrder, boolean create) {
+        int i = Arrays.binarySearch(layerOrders, drawOrder);
+        
+        if (i >= 0)
+            return layers[i];
+        if (!create)
+            return null;
+        
+        i = -i - 1;
+        
+        int[] newOrders = new int[layerOrders.length + 1];
+        Bucket[][] newLayers = new Bucket[layers.length + 1][];
+        
+        System.arraycopy(layerOrders, 0, newOrders, 0, i);
+        System.arraycopy(layerOrders, i, newOrders, i + 1, layerOrders.length - i);
+        System.arraycopy(layers, 0, newLayers, 0, i);
+        System.arraycopy(layers, i, newLayers, i + 1, layers.length - i);
+        
+        newOrders[i] = drawOrder;
+        newLayers[i] = new Bucket[bucketsX * bucketsY];
+        
+        layerOrders = newOrders;
+        layers = newLayers;
+        
+        return newLayers[i];
+    }
+    
+    private static class Bucket {
+        private Entity[] entities = new Entity[4];
+        private int[] cells = new int[4];
+        private int size;
+        
+        private void add(Entity e, int cell) {
+            if (size == entities.length) {
+                entities = Arrays.copyOf(entities, size * 2);
+                cells = Arrays.copyOf(cells, size * 2);
+            }
+            
+            entities[size] = e;
+            cells[size] = cell;
+            size++;
+        }
+        
+        private void remove(Entity e) {
+            for (int i = 0; i < size; i++) {
+                if (entities[i] == e) {
+                    size--;
+                    entities[i] = entities[size];
+                    cells[i] = cells[size];
+                    entities[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+}
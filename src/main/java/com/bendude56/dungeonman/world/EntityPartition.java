@@ -0,0 +1,32 @@
+package com.bendude56.dungeonman.world;
+
+import com.bendude56.dungeonman.entity.Entity;
+import com.bendude56.dungeonman.entity.EntityDroppedItem;
+import com.bendude56.dungeonman.entity.EntityEnemy;
+import com.bendude56.dungeonman.entity.EntityPlayer;
+
+/**
+ * The groups into which the entities of a {@link World} are divided, so that
+ * code interested in only one kind of entity need not look at the others.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public enum EntityPartition {
+    PLAYERS, ENEMIES, DROPPED_ITEMS, OTHERS;
+    
+    /**
+     * Gets the partition in which the specified entity belongs.
+     */
+    public static EntityPartition of(Entity e) {
+        if (e instanceof EntityPlayer) {
+            return PLAYERS;
+        } else if (e instanceof EntityEnemy) {
+            return ENEMIES;
+        } else if (e instanceof EntityDroppedItem) {
+            return DROPPED_ITEMS;
+        } else {
+            return OTHERS;
+        }
+    }
+}
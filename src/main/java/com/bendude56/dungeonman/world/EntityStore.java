@@ -0,0 +1,146 @@
+package com.bendude56.dungeonman.world;
+
+import java.util.Arrays;
+
+import com.bendude56.dungeonman.GameInstance;
+import com.bendude56.dungeonman.entity.Entity;
+
+/**
+ * Holds the entities of a {@link World} in one dense array per
+ * {@link EntityPartition}. Entities are located by the slot number in their
+ * ID, so lookups never hash or box, and removal swaps the last entity of a
+ * partition into the gap.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+class EntityStore {
+    private static final int PARTITION_COUNT = EntityPartition.values().length;
+    
+    private final Entity[][] partitions = new Entity[PARTITION_COUNT][];
+    private final int[] sizes = new int[PARTITION_COUNT];
+    
+    // Indexed by entity slot. Holds (partition << 24 | index) + 1, or 0 if the
+    // slot has no entity in this store.
+    private int[] locations = new int[64];
+    
+    EntityStore() {
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            partitions[i] = new Entity[16];
+        }
+    }
+    
+    /**
+     * Gets the entity with the specified ID, or null if it is not in this
+     * store.
+     */
+    Entity get(int id) {
+        int slot = GameInstance.getEntitySlot(id);
+        
+        if (slot >= locations.length || locations[slot] == 0)
+            return null;
+        
+        int location = locations[slot] - 1;
+        Entity e = partitions[location >>> 24][location & 0xFFFFFF];
+        
+        // The slot may now belong to a newer entity
+        return (e.getEntityId() == id) ? e : null;
+    }
+    
+    /**
+     * Adds an entity to this store. An entity with the same slot MUST NOT
+     * already be in the store.
+     */
+    void add(Entity e) {
+        int slot = GameInstance.getEntitySlot(e.getEntityId());
+        int p = EntityPartition.of(e).ordinal();
+        
+        if (slot >= locations.length)
+            locations = Arrays.copyOf(locations, Math.max(locations.length * 2, slot + 1));
+        if (sizes[p] == partitions[p].length)
+            partitions[p] = Arrays.copyOf(partitions[p], sizes[p] * 2);
+        
+        partitions[p][sizes[p]] = e;
+        locations[slot] = ((p << 24) | sizes[p]) + 1;
+        sizes[p]++;
+    }
+    
+    /**
+     * Removes an entity from this store.
+     * 
+     * @return True if the entity was in the store.
+     */
+    boolean remove(Entity e) {
+        if (get(e.getEntityId()) != e)
+            return false;
+        
+        int slot = GameInstance.getEntitySlot(e.getEntityId());
+        int location = locations[slot] - 1;
+        int p = location >>> 24;
+        int i = location & 0xFFFFFF;
+        int last = --sizes[p];
+        
+        if (i != last) {
+            Entity moved = partitions[p][last];
+            partitions[p][i] = moved;
+            locations[GameInstance.getEntitySlot(moved.getEntityId())] = location + 1;
+        }
+        
+        partitions[p][last] = null;
+        locations[slot] = 0;
+        
+        return true;
+    }
+    
+    void clear() {
+        for (int p = 0; p < PARTITION_COUNT; p++) {
+            Arrays.fill(partitions[p], 0, sizes[p], null);
+            sizes[p] = 0;
+        }
+        
+        Arrays.fill(locations, 0);
+    }
+    
+    int size() {
+        int size = 0;
+        
+        for (int s : sizes) {
+            size += s;
+        }
+        
+        return size;
+    }
+    
+    int size(EntityPartition partition) {
+        return sizes[partition.ordinal()];
+    }
+    
+    Entity get(EntityPartition partition, int index) {
+        if (index < 0 || index >= sizes[partition.ordinal()])
+            throw new IndexOutOfBoundsException("Entity index is out of bounds!");
+        
+        return partitions[partition.ordinal()][index];
+    }
+    
+    /**
+     * Copies the entities of a partition into a buffer, so that they can be
+     * iterated while the store is being modified.
+     * 
+     * @param partition The partition to copy
+     * @param buffer The buffer to copy into. A larger buffer is allocated if
+     *            this one is too small.
+     * 
+     * @return The buffer containing the entities, followed by null.
+     */
+    Entity[] copy(EntityPartition partition, Entity[] buffer) {
+        int p = partition.ordinal();
+        
+        if (buffer.length <= sizes[p])
+            buffer = new Entity[sizes[p] * 2];
+        
+        System.arraycopy(partitions[p], 0, buffer, 0, sizes[p]);
+        buffer[sizes[p]] = null;
+        
+        return buffer;
+    }
+}
@@ -0,0 +1,21 @@
+package com.bendude56.dungeonman.world;
+
+import com.bendude56.dungeonman.entity.Entity;
+
+/**
+ * A callback which is handed each entity found by a query such as
+ * {@link World#forEachEntityIn(int, int, int, int, EntityVisitor)}.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public interface EntityVisitor {
+    /**
+     * Called once for each entity matched by a query. Entities MUST NOT be
+     * added to, removed from or moved within the world being queried until
+     * the query has finished.
+     * 
+     * @param e The matching entity
+     */
+    public void visit(Entity e);
+}
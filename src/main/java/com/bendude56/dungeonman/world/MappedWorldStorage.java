@@ -0,0 +1,326 @@
+package com.bendude56.dungeonman.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.bendude56.dungeonman.world.tile.Tile;
+import com.bendude56.dungeonman.world.tile.TileMetadata;
+import com.bendude56.dungeonman.world.tile.TileMetadataDoor;
+import com.bendude56.dungeonman.world.tile.TileMetadataStairs;
+
+/**
+ * Stores the tiles of a {@link World} in a memory-mapped file instead of on
+ * the Java heap. This keeps very large floors out of the way of the garbage
+ * collector, and lets the operating system page a floor out while the player
+ * is elsewhere and back in again when they return.
+ * <p>
+ * The file starts with a small header, followed by one tile ID per tile, the
+ * known and visible bitsets, and one packed metadata value per tile. Only
+ * door and stair metadata can be stored.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class MappedWorldStorage implements WorldStorage {
+    private static final int MAGIC = 0x444D4150;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    
+    private static final int META_NONE = 0;
+    private static final int META_DOOR = 1;
+    private static final int META_STAIRS = 2;
+    private static final int META_VALUE_MASK = 0xFFFFFF;
+    
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int width, height;
+    private final int tilesOffset, knownOffset, visibleOffset, metaOffset;
+    
+    /**
+     * Creates a new storage file of the specified size, replacing the file if
+     * it already exists. The new storage is filled with walls.
+     * 
+     * @param file The file in which the tiles should be stored.
+     * @param width The width of the world, in tiles.
+     * @param height The height of the world, in tiles.
+     * 
+     * @throws IOException If the file could not be created or mapped.
+     */
+    public MappedWorldStorage(File file, int width, int height) throws IOException {
+        this(file, width, height, true);
+    }
+    
+    private MappedWorldStorage(File file, int width, int height, boolean create) throws IOException {
+        long bitsSize = ((long) width * height + 63) / 64 * 8;
+        long tilesSize = ((long) width * height * 2 + 7) / 8 * 8;
+        long size = HEADER_SIZE + tilesSize + bitsSize * 2 + (long) width * height * 4;
+        
+        if (width <= 0 || height <= 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported world size for a mapped world!");
+        }
+        
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.tilesOffset = HEADER_SIZE;
+        this.knownOffset = (int) (tilesOffset + tilesSize);
+        this.visibleOffset = (int) (knownOffset + bitsSize);
+        this.metaOffset = (int) (visibleOffset + bitsSize);
+        
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (create) {
+                // Any space that hasn't been written to yet reads as zero
+                raf.setLength(0);
+                raf.setLength(size);
+            } else if (raf.length() != size) {
+                throw new IOException("World storage file has the wrong size!");
+            }
+            
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+        
+        if (create) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, width);
+            buffer.putInt(12, height);
+            
+            if (Tile.wall.getTileId() != 0)
+                fillTileIds(0, 0, width - 1, height - 1, Tile.wall.getTileId());
+        } else {
+            // The world only keeps track of its visible tiles in memory, so
+            // any left over from before the file was closed are stale
+            for (int i = visibleOffset; i < metaOffset; i += 8) {
+                buffer.putLong(i, 0L);
+            }
+        }
+    }
+    
+    /**
+     * Opens a storage file that was previously created by this class, keeping
+     * all of the tiles that were stored in it. No tile is visible in the
+     * reopened storage.
+     * 
+     * @param file The file to open.
+     * 
+     * @throws IOException If the file could not be read, or is not a valid
+     *             storage file.
+     */
+    public static MappedWorldStorage open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        int magic, version, width, height;
+        
+        try {
+            magic = raf.readInt();
+            version = raf.readInt();
+            width = raf.readInt();
+            height = raf.readInt();
+        } finally {
+            raf.close();
+        }
+        
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("Not a valid world storage file!");
+        }
+        
+        return new MappedWorldStorage(file, width, height, false);
+    }
+    
+    /**
+     * Gets the file in which this storage is kept.
+     */
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * Writes any changes made to this storage out to its file.
+     */
+    public void flush() {
+        buffer.force();
+    }
+    
+    @Override
+    public int getWidth() {
+        return width;
+    }
+    
+    @Override
+    public int getHeight() {
+        return height;
+    }
+    
+    @Override
+    public int getTileId(int x, int y) {
+        return buffer.getShort(tilesOffset + (y * width + x) * 2);
+    }
+    
+    @Override
+    public void setTileId(int x, int y, int id) {
+        buffer.putShort(tilesOffset + (y * width + x) * 2, (short) id);
+    }
+    
+    @Override
+    public void fillTileIds(int x1, int y1, int x2, int y2, int id) {
+        for (int y = y1; y <= y2; y++) {
+            for (int i = y * width + x1; i <= y * width + x2; i++) {
+                buffer.putShort(tilesOffset + i * 2, (short) id);
+            }
+        }
+    }
+    
+    @Override
+    public boolean isFilled(int x1, int y1, int x2, int y2, int id) {
+        for (int y = y1; y <= y2; y++) {
+            for (int i = y * width + x1; i <= y * width + x2; i++) {
+                if (buffer.getShort(tilesOffset + i * 2) != id)
+                    return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    @Override
+    public boolean hasProperty(int x, int y, int property) {
+        return (Tile.getProperties(getTileId(x, y)) & property) != 0;
+    }
+    
+    @Override
+    public boolean allHaveProperty(int x1, int y1, int x2, int y2, int property) {
+        for (int y = y1; y <= y2; y++) {
+            for (int i = y * width + x1; i <= y * width + x2; i++) {
+                if ((Tile.getProperties(buffer.getShort(tilesOffset + i * 2)) & property) == 0)
+                    return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    @Override
+    public TileMetadata getMetadata(int x, int y) {
+        int m = buffer.getInt(metaOffset + (y * width + x) * 4);
+        int value = (m << 8) >> 8;
+        
+        // Only locked doors need an instance of their own, since the
+        // metadata classes can't be modified
+        switch (m >>> 24) {
+        case META_DOOR:
+            return (value == TileMetadataDoor.UNLOCKED.getKeyId()) ? TileMetadataDoor.UNLOCKED
+                    : new TileMetadataDoor(value);
+        case META_STAIRS:
+            return (value != 0) ? TileMetadataStairs.UP : TileMetadataStairs.DOWN;
+        default:
+            return TileMetadata.NONE;
+        }
+    }
+    
+    @Override
+    public void setMetadata(int x, int y, TileMetadata m) {
+        int packed;
+        
+        if (m == null || m.getClass() == TileMetadata.class) {
+            packed = META_NONE;
+        } else if (m instanceof TileMetadataDoor) {
+            int keyId = ((TileMetadataDoor) m).getKeyId();
+            
+            if (keyId != (keyId << 8) >> 8) {
+                throw new IllegalArgumentException("Key ID is too large for a mapped world!");
+            }
+            
+            packed = (META_DOOR << 24) | (keyId & META_VALUE_MASK);
+        } else if (m instanceof TileMetadataStairs) {
+            packed = (META_STAIRS << 24) | (((TileMetadataStairs) m).isGoingUp() ? 1 : 0);
+        } else {
+            throw new IllegalArgumentException("Metadata of type " + m.getClass().getSimpleName()
+                    + " cannot be stored in a mapped world!");
+        }
+        
+        buffer.putInt(metaOffset + (y * width + x) * 4, packed);
+    }
+    
+    @Override
+    public void clearMetadata(int x1, int y1, int x2, int y2) {
+        for (int y = y1; y <= y2; y++) {
+            for (int i = y * width + x1; i <= y * width + x2; i++) {
+                buffer.putInt(metaOffset + i * 4, META_NONE);
+            }
+        }
+    }
+    
+    @Override
+    public boolean isKnown(int x, int y) {
+        return getBit(knownOffset, y * width + x);
+    }
+    
+    @Override
+    public void setKnown(int x, int y) {
+        setBit(knownOffset, y * width + x, true);
+    }
+    
+    @Override
+    public boolean isVisible(int x, int y) {
+        return getBit(visibleOffset, y * width + x);
+    }
+    
+    @Override
+    public void setVisible(int x, int y, boolean visible) {
+        setBit(visibleOffset, y * width + x, visible);
+    }
+    
+    @Override
+    public boolean isAnyVisible(int x1, int y1, int x2, int y2) {
+        return isAnyBitSet(visibleOffset, x1, y1, x2, y2);
+    }
+    
+    @Override
+    public boolean isAnyKnown(int x1, int y1, int x2, int y2) {
+        return isAnyBitSet(knownOffset, x1, y1, x2, y2);
+    }
+    
+    private boolean getBit(int offset, int i) {
+        return (buffer.getLong(offset + (i >> 6) * 8) & (1L << i)) != 0;
+    }
+    
+    private void setBit(int offset, int i, boolean value) {
+        int word = offset + (i >> 6) * 8;
+        long bits = buffer.getLong(word);
+        
+        if (value) {
+            bits |= 1L << i;
+        } else {
+            bits &= ~(1L << i);
+        }
+        
+        buffer.putLong(word, bits);
+    }
+    
+    private boolean isAnyBitSet(int offset, int x1, int y1, int x2, int y2) {
+        for (int y = y1; y <= y2; y++) {
+            int from = y * width + x1;
+            int to = y * width + x2;
+            
+            // Check the row a whole word at a time
+            for (int w = from >> 6; w <= to >> 6; w++) {
+                long mask = -1L;
+                
+                if (w == from >> 6)
+                    mask &= -1L << from;
+                if (w == to >> 6)
+                    mask &= -1L >>> (63 - (to & 63));
+                
+                if ((buffer.getLong(offset + w * 8) & mask) != 0)
+                    return true;
+            }
+        }
+        
+        return false;
+    }
+}
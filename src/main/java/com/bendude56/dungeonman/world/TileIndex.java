@@ -0,0 +1,142 @@
+package com.bendude56.dungeonman.world;
+
+import com.bendude56.dungeonman.util.IntHashMap;
+
+/**
+ * Tracks where each {@link com.bendude56.dungeonman.world.tile.Tile#isIndexed()
+ * indexed} tile lies within a world. Locations are grouped by tile ID and then
+ * by 32x32 bucket, so a query only ever looks at the buckets it overlaps and
+ * only at tiles of the requested type. Empty buckets are not stored at all.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+class TileIndex {
+    private static final int BUCKET_SHIFT = 5;
+    
+    private final int width;
+    private final int bucketsWide;
+    
+    // Tile ID -> bucket index -> locations of that tile within the bucket
+    private final IntHashMap<IntHashMap<Bucket>> tiles = new IntHashMap<IntHashMap<Bucket>>();
+    
+    TileIndex(int width) {
+        this.width = width;
+        this.bucketsWide = ((width - 1) >> BUCKET_SHIFT) + 1;
+    }
+    
+    void add(int tileId, int x, int y) {
+        IntHashMap<Bucket> buckets = tiles.get(tileId);
+        
+        if (buckets == null)
+            tiles.put(tileId, buckets = new IntHashMap<Bucket>());
+        
+        int b = (y >> BUCKET_SHIFT) * bucketsWide + (x >> BUCKET_SHIFT);
+        Bucket bucket = buckets.get(b);
+        
+        if (bucket == null)
+            buckets.put(b, bucket = new Bucket());
+        
+        bucket.add(y * width + x);
+    }
+    
+    void remove(int tileId, int x, int y) {
+        IntHashMap<Bucket> buckets = tiles.get(tileId);
+        
+        if (buckets == null)
+            return;
+        
+        int b = (y >> BUCKET_SHIFT) * bucketsWide + (x >> BUCKET_SHIFT);
+        Bucket bucket = buckets.get(b);
+        
+        if (bucket != null && bucket.remove(y * width + x) && bucket.count == 0)
+            buckets.remove(b);
+    }
+    
+    /**
+     * Removes every location within a rectangle, whatever its tile.
+     */
+    void removeIn(int x1, int y1, int x2, int y2) {
+        for (int t = 0; t < tiles.capacity(); t++) {
+            IntHashMap<Bucket> buckets = tiles.valueAt(t);
+            
+            if (buckets == null)
+                continue;
+            
+            for (int by = y1 >> BUCKET_SHIFT; by <= y2 >> BUCKET_SHIFT; by++) {
+                for (int bx = x1 >> BUCKET_SHIFT; bx <= x2 >> BUCKET_SHIFT; bx++) {
+                    Bucket bucket = buckets.get(by * bucketsWide + bx);
+                    
+                    if (bucket == null)
+                        continue;
+                    
+                    for (int i = bucket.count - 1; i >= 0; i--) {
+                        int x = bucket.cells[i] % width;
+                        int y = bucket.cells[i] / width;
+                        
+                        if (x >= x1 && x <= x2 && y >= y1 && y <= y2)
+                            bucket.remove(bucket.cells[i]);
+                    }
+                    
+                    if (bucket.count == 0)
+                        buckets.remove(by * bucketsWide + bx);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Visits every location of a tile within the specified number of
+     * orthogonal steps of a location. The rectangle covered MUST already be
+     * clipped to the world.
+     */
+    void forEachNear(int tileId, int cx, int cy, int radius, int x1, int y1, int x2, int y2, TileVisitor visitor) {
+        IntHashMap<Bucket> buckets = tiles.get(tileId);
+        
+        if (buckets == null)
+            return;
+        
+        for (int by = y1 >> BUCKET_SHIFT; by <= y2 >> BUCKET_SHIFT; by++) {
+            for (int bx = x1 >> BUCKET_SHIFT; bx <= x2 >> BUCKET_SHIFT; bx++) {
+                Bucket bucket = buckets.get(by * bucketsWide + bx);
+                
+                if (bucket == null)
+                    continue;
+                
+                for (int i = 0; i < bucket.count; i++) {
+                    int x = bucket.cells[i] % width;
+                    int y = bucket.cells[i] / width;
+                    
+                    if (Math.abs(x - cx) + Math.abs(y - cy) <= radius)
+                        visitor.visit(x, y);
+                }
+            }
+        }
+    }
+    
+    private static class Bucket {
+        private int[] cells = new int[4];
+        private int count;
+        
+        private void add(int cell) {
+            if (count == cells.length) {
+                int[] newCells = new int[cells.length * 2];
+                System.arraycopy(cells, 0, newCells, 0, count);
+                cells = newCells;
+            }
+            
+            cells[count++] = cell;
+        }
+        
+        private boolean remove(int cell) {
+            for (int i = 0; i < count; i++) {
+                if (cells[i] == cell) {
+                    cells[i] = cells[--count];
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.bendude56.dungeonman.world;
+
+/**
+ * A callback which is handed the location of each tile found by a query such
+ * as {@link World#forEachTileNear(com.bendude56.dungeonman.world.tile.Tile, int, int, int, TileVisitor)}.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public interface TileVisitor {
+    /**
+     * Called once for each tile matched by a query. Tiles MUST NOT be set in
+     * the world being queried until the query has finished.
+     * 
+     * @param x The x location of the matching tile
+     * @param y The y location of the matching tile
+     */
+    public void visit(int x, int y);
+}
@@ -0,0 +1,201 @@
+package com.bendude56.dungeonman.world;
+
+import java.util.Arrays;
+
+import com.bendude56.dungeonman.GameInstance;
+import com.bendude56.dungeonman.entity.Entity;
+
+/**
+ * Decides which entities of a world act next. Every scheduled entity has a
+ * time at which it next acts, and entities are kept in a binary heap ordered
+ * by that time and then by entity ID. Entities with nothing to do can instead
+ * be put to sleep, which takes them out of the heap entirely until they are
+ * woken, so that they cost nothing while they wait.
+ * <p>
+ * Per-entity state is kept in arrays indexed by
+ * {@link GameInstance#getEntitySlot(int) entity slot}.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+class TurnScheduler {
+    // The state of each entity slot: 0 if the entity is not known to the
+    // scheduler, ASLEEP if it is sleeping, or its position in the heap plus one
+    private static final int ASLEEP = -1;
+    private int[] states = new int[64];
+    
+    private Entity[] heap = new Entity[64];
+    private long[] heapTimes = new long[64];
+    private int size;
+    
+    /**
+     * Gets the number of entities waiting for their next action.
+     */
+    int size() {
+        return size;
+    }
+    
+    /**
+     * Gets the time at which the next entity acts. MUST NOT be called while no
+     * entities are waiting.
+     */
+    long peekTime() {
+        return heapTimes[0];
+    }
+    
+    /**
+     * Removes and returns the next entity to act, or null if no entities are
+     * waiting. The entity is no longer scheduled until it is scheduled again.
+     */
+    Entity poll() {
+        if (size == 0)
+            return null;
+        
+        Entity e = heap[0];
+        
+        removeAt(0);
+        states[slot(e)] = 0;
+        
+        return e;
+    }
+    
+    /**
+     * Schedules an entity to act at the specified time, waking it if it was
+     * asleep and replacing any time it was already scheduled for.
+     */
+    void schedule(Entity e, long time) {
+        int slot = slot(e);
+        
+        if (slot >= states.length)
+            states = Arrays.copyOf(states, Math.max(slot + 1, states.length * 2));
+        
+        if (states[slot] > 0)
+            removeAt(states[slot] - 1);
+        
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+            heapTimes = Arrays.copyOf(heapTimes, size * 2);
+        }
+        
+        heap[size] = e;
+        heapTimes[size] = time;
+        siftUp(size++);
+    }
+    
+    /**
+     * Puts an entity to sleep. A sleeping entity does not act again until it
+     * is scheduled again.
+     */
+    void sleep(Entity e) {
+        remove(e);
+        
+        int slot = slot(e);
+        
+        if (slot >= states.length)
+            states = Arrays.copyOf(states, Math.max(slot + 1, states.length * 2));
+        
+        states[slot] = ASLEEP;
+    }
+    
+    /**
+     * Checks whether an entity is sleeping.
+     */
+    boolean isAsleep(Entity e) {
+        int slot = slot(e);
+        
+        return slot < states.length && states[slot] == ASLEEP;
+    }
+    
+    /**
+     * Forgets an entity entirely, whether it was scheduled or asleep.
+     */
+    void remove(Entity e) {
+        int slot = slot(e);
+        
+        if (slot >= states.length)
+            return;
+        
+        if (states[slot] > 0 && heap[states[slot] - 1] == e)
+            removeAt(states[slot] - 1);
+        
+        states[slot] = 0;
+    }
+    
+    void clear() {
+        Arrays.fill(heap, 0, size, null);
+        Arrays.fill(states, 0);
+        size = 0;
+    }
+    
+    private static int slot(Entity e) {
+        return GameInstance.getEntitySlot(e.getEntityId());
+    }
+    
+    private boolean before(int a, int b) {
+        return heapTimes[a] < heapTimes[b]
+                || (heapTimes[a] == heapTimes[b] && heap[a].getEntityId() < heap[b].getEntityId());
+    }
+    
+    private void removeAt(int i) {
+        size--;
+        
+        if (i != size) {
+            move(size, i);
+            heap[size] = null;
+            
+            if (i > 0 && before(i, (i - 1) >> 1)) {
+                siftUp(i);
+            } else {
+                siftDown(i);
+            }
+        } else {
+            heap[size] = null;
+        }
+    }
+    
+    private void siftUp(int i) {
+        while (i > 0 && before(i, (i - 1) >> 1)) {
+            swap(i, (i - 1) >> 1);
+            i = (i - 1) >> 1;
+        }
+        
+        states[slot(heap[i])] = i + 1;
+    }
+    
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            
+            if (child >= size)
+                break;
+            if (child + 1 < size && before(child + 1, child))
+                child++;
+            if (!before(child, i))
+                break;
+            
+            swap(i, child);
+            i = child;
+        }
+        
+        states[slot(heap[i])] = i + 1;
+    }
+    
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        heapTimes[to] = heapTimes[from];
+        states[slot(heap[to])] = to + 1;
+    }
+    
+    private void swap(int a, int b) {
+        Entity e = heap[a];
+        long time = heapTimes[a];
+        
+        heap[a] = heap[b];
+        heapTimes[a] = heapTimes[b];
+        heap[b] = e;
+        heapTimes[b] = time;
+        
+        states[slot(heap[a])] = a + 1;
+        states[slot(heap[b])] = b + 1;
+    }
+}
@@ -1,51 +1,218 @@
 package com.bendude56.dungeonman.world;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.concurrent.RecursiveAction;
 
 import com.bendude56.dungeonman.GameInstance;
 import com.bendude56.dungeonman.entity.Entity;
+import com.bendude56.dungeonman.entity.EntityAlive;
 import com.bendude56.dungeonman.entity.EntityDroppedItem;
+import com.bendude56.dungeonman.entity.EntityPlayer;
 import com.bendude56.dungeonman.item.ItemStack;
+import com.bendude56.dungeonman.util.GameRandom;
+import com.bendude56.dungeonman.util.IntHashMap;
+import com.bendude56.dungeonman.world.fov.FieldOfView;
+import com.bendude56.dungeonman.world.fov.FieldOfViewBatch;
+import com.bendude56.dungeonman.world.path.FlowField;
+import com.bendude56.dungeonman.world.path.PathFinder;
+import com.bendude56.dungeonman.world.path.RegionGraph;
 import com.bendude56.dungeonman.world.tile.Tile;
 import com.bendude56.dungeonman.world.tile.TileMetadata;
 import com.bendude56.dungeonman.world.tile.TileState;
-import com.bendude56.dungeonman.world.tile.TileWall;
 
 /**
  * @author Benjamin C. Thomas
  */
 
 public class World {
+    /**
+     * The number of ticks that pass each time this world takes a turn. An
+     * entity whose {@link Entity#getActionDelay() action delay} is this long
+     * acts once per turn.
+     */
+    public static final int TURN_LENGTH = 100;
+    
+    // The number of entities due at once below which their turns are planned
+    // on the thread running this world, rather than on the worker pool
+    private static final int PARALLEL_PLANNING = 32;
+    
     private GameInstance game;
+    private GameRandom random;
     
-    private Tile[][] tiles;
-    private TileMetadata[][] tileMeta;
+    private WorldStorage storage;
     private int width, height;
     private int entryX, entryY;
     private int exitX, exitY;
     private int dungeonLevel;
-    private boolean[][] tileKnown;
-    private boolean[][] tileVisible;
     
-    private HashMap<Integer, Entity> entities;
+    // The indices of every tile made visible since the last call to
+    // clearTileVisibility() are kept so that only they need clearing
+    private int[] litTiles = new int[256];
+    private int litCount;
+    
+    // Every 32x32 region of tiles is stamped with the value of tileVersion at
+    // the time one of its tiles was last changed
+    private static final int REGION_SHIFT = 5;
+    private int[] regionVersions;
+    private int regionsWide;
+    private int tileVersion;
+    
+    private EntityStore entities = new EntityStore();
+    
+    // Entities which have died since the end of the last turn, and the buffer
+    // used to iterate over each partition during a turn
+    private Entity[] deadEntities = new Entity[16];
+    private int deadCount;
+    private Entity[] turnBuffer = new Entity[64];
+    
+    // Everything other than players and dropped items acts when the scheduler
+    // says so. Sleeping entities are woken when a player comes within their
+    // view distance, which is at most maxViewDistance.
+    private TurnScheduler scheduler = new TurnScheduler();
+    private long time;
+    private int maxViewDistance;
+    private int wakeX, wakeY;
+    private Entity[] planBuffer = new Entity[64];
+    
+    private final EntityVisitor sleeperWaker = new EntityVisitor() {
+        @Override
+        public void visit(Entity e) {
+            if (e instanceof EntityAlive && scheduler.isAsleep(e)) {
+                int dx = e.getX() - wakeX;
+                int dy = e.getY() - wakeY;
+                int v = ((EntityAlive) e).getViewDistance();
+                
+                if (dx * dx + dy * dy <= v * v)
+                    scheduler.schedule(e, time);
+            }
+        }
+    };
+    
+    // Entities are indexed by the tile they're standing on. Each occupied tile
+    // (keyed by y * width + x) maps to the first entity on it, and each entity
+    // (keyed by ID) maps to the next entity on the same tile.
+    private IntHashMap<Entity> cellHeads = new IntHashMap<Entity>();
+    private IntHashMap<Entity> cellNext = new IntHashMap<Entity>();
+    private EntityGrid entityGrid;
+    
+    private TileIndex tileIndex;
+    
+    // One path finder for the thread running this world's turns, followed by
+    // one for each worker of the shared worker pool, indexed by
+    // GameInstance.getWorkerSlot(). The array is replaced rather than changed
+    // whenever a path finder is added, so that it can be read without
+    // locking.
+    private volatile PathFinder[] pathFinders = new PathFinder[1];
+    
+    private FlowField flowField;
+    private RegionGraph regionGraph;
+    
+    // Computes the sight fields of players, and the players whose sight
+    // fields are being computed
+    private final FieldOfViewBatch sightBatch = new FieldOfViewBatch();
+    private final List<EntityPlayer> sightViewers = new ArrayList<EntityPlayer>();
     
     public World(int width, int height, int dungeonLevel) {
-        this.tiles = new Tile[width][height];
-        this.tileMeta = new TileMetadata[width][height];
-        this.width = width;
-        this.height = height;
+        this(new ChunkedWorldStorage(width, height), dungeonLevel);
+    }
+    
+    /**
+     * Creates a world whose tiles are kept in the specified storage. Any tiles
+     * already present in the storage are kept, so a fresh storage MUST start
+     * out filled with walls.
+     */
+    public World(WorldStorage storage, int dungeonLevel) {
+        this.storage = storage;
+        this.width = storage.getWidth();
+        this.height = storage.getHeight();
         this.dungeonLevel = dungeonLevel;
-        this.entities = new HashMap<Integer, Entity>();
+        this.entityGrid = new EntityGrid(width, height);
+        this.regionsWide = ((width - 1) >> REGION_SHIFT) + 1;
+        this.regionVersions = new int[regionsWide * (((height - 1) >> REGION_SHIFT) + 1)];
+        this.tileIndex = new TileIndex(width);
         this.game = GameInstance.getActiveInstance();
+        this.random = (game != null) ? game.splitRandom() : new GameRandom();
         
-        this.tileKnown = new boolean[width][height];
-        this.tileVisible = new boolean[width][height];
+        // Index any tiles that were already present in the storage
+        if (!storage.isFilled(0, 0, width - 1, height - 1, Tile.wall.getTileId())) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    Tile t = Tile.getTile(storage.getTileId(x, y));
+                    
+                    if (t != null && t.isIndexed())
+                        tileIndex.add(t.getTileId(), x, y);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Gets the path finder used by entities moving around this world. The
+     * thread running this world's turns and each worker of the
+     * {@link GameInstance#getWorkerPool() worker pool} get a path finder of
+     * their own, whose search buffers are reused by every search that thread
+     * makes in this world. This MUST NOT be used from any other thread.
+     */
+    public PathFinder getPathFinder() {
+        int slot = GameInstance.getWorkerSlot();
+        PathFinder[] finders = pathFinders;
         
-        setRect(0, 0, width - 1, height - 1, Tile.wall);
+        if (slot < finders.length && finders[slot] != null)
+            return finders[slot];
+        
+        return createPathFinder(slot);
+    }
+    
+    private synchronized PathFinder createPathFinder(int slot) {
+        PathFinder[] finders = pathFinders;
+        
+        if (slot < finders.length && finders[slot] != null)
+            return finders[slot];
+        
+        finders = Arrays.copyOf(finders, Math.max(finders.length, slot + 1));
+        finders[slot] = new PathFinder(this);
+        pathFinders = finders;
+        
+        return finders[slot];
+    }
+    
+    /**
+     * Gets the distances from the tiles around the players in this world to
+     * the players themselves, which entities chasing a player can share
+     * instead of each searching for their own path. This MUST only be used
+     * from the thread running this world's turns, except while entities are
+     * {@link Entity#planTurn() planning} their turns.
+     */
+    public FlowField getFlowField() {
+        if (flowField == null)
+            flowField = new FlowField(this);
+        
+        return flowField;
+    }
+    
+    /**
+     * Gets the graph of regions and portals describing how the open areas of
+     * this world connect, or null if the world was not generated with one.
+     */
+    public RegionGraph getRegionGraph() {
+        return regionGraph;
+    }
+    
+    /**
+     * Sets the graph of regions and portals describing how the open areas of
+     * this world connect. The graph is kept up to date as tiles are set.
+     * 
+     * @param graph The new graph, or null to remove the graph.
+     */
+    public void setRegionGraph(RegionGraph graph) {
+        if (graph != null && graph.getWorld() != this) {
+            throw new IllegalArgumentException("Region graph belongs to another world!");
+        }
+        
+        this.regionGraph = graph;
     }
     
     /**
@@ -82,7 +249,7 @@ public class World {
             throw new IllegalArgumentException("Location is out of bounds!");
         }
         
-        return tiles[x][y];
+        return Tile.getTile(storage.getTileId(x, y));
     }
     
     /**
@@ -105,8 +272,19 @@ public class World {
             throw new IllegalArgumentException("Location is out of bounds!");
         }
         
-        tiles[x][y] = tile;
-        tileMeta[x][y] = new TileMetadata();
+        Tile old = Tile.getTile(storage.getTileId(x, y));
+        
+        if (old != null && old.isIndexed())
+            tileIndex.remove(old.getTileId(), x, y);
+        if (tile.isIndexed())
+            tileIndex.add(tile.getTileId(), x, y);
+        
+        storage.setTileId(x, y, tile.getTileId());
+        storage.setMetadata(x, y, null);
+        touchRegions(x, y, x, y);
+        
+        if (regionGraph != null)
+            regionGraph.updatePortals(x, y, x, y);
     }
     
     /**
@@ -139,13 +317,18 @@ public class World {
     }
     
     /**
-     * Gets the metadata present at the given location.
+     * Gets the metadata present at the given location. Locations without any
+     * special metadata all share {@link TileMetadata#NONE}.
      * 
      * @param x The x coordinate to get the metadata from.
      * @param y The y coordinate to get the metadata from.
      */
     public TileMetadata getMetadata(int x, int y) {
-        return tileMeta[x][y];
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IllegalArgumentException("Location is out of bounds!");
+        }
+        
+        return storage.getMetadata(x, y);
     }
     
     /**
@@ -164,7 +347,11 @@ public class World {
      * @param y The y coordinate at which to set the metadata.
      */
     public void setMetadata(int x, int y, TileMetadata m) {
-        tileMeta[x][y] = m;
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IllegalArgumentException("Location is out of bounds!");
+        }
+        
+        storage.setMetadata(x, y, m);
     }
     
     /**
@@ -174,7 +361,7 @@ public class World {
      * @param y The y coordinate to get the state from.
      */
     public TileState getTileState(int x, int y) {
-        return getTileState(new WorldLocation(this, x, y));
+        return new TileState(this, x, y);
     }
     
     /**
@@ -183,7 +370,7 @@ public class World {
      * @param l The location to get the state from
      */
     public TileState getTileState(WorldLocation l) {
-        return new TileState(l);
+        return new TileState(this, l.x, l.y);
     }
     
     /**
@@ -219,18 +406,119 @@ public class World {
         }
         
         // Set all tiles within the defined bounds
-        for (int x = x1; x <= x2; x++) {
+        storage.fillTileIds(x1, y1, x2, y2, tile.getTileId());
+        storage.clearMetadata(x1, y1, x2, y2);
+        touchRegions(x1, y1, x2, y2);
+        tileIndex.removeIn(x1, y1, x2, y2);
+        
+        if (tile.isIndexed()) {
             for (int y = y1; y <= y2; y++) {
-                tiles[x][y] = tile;
-                tileMeta[x][y] = new TileMetadata();
+                for (int x = x1; x <= x2; x++) {
+                    tileIndex.add(tile.getTileId(), x, y);
+                }
             }
         }
+        
+        if (regionGraph != null)
+            regionGraph.updatePortals(x1, y1, x2, y2);
+    }
+    
+    /**
+     * Gets a version stamp for the tiles within a rectangular area. The stamp
+     * changes whenever a tile within the area is set, so anything computed
+     * from these tiles remains valid for as long as the stamp stays the same.
+     * Changes to tiles near the area may also change the stamp. Parts of the
+     * rectangle that lie outside of the world are ignored.
+     */
+    public int getTileVersion(int x1, int y1, int x2, int y2) {
+        int version = 0;
+        int rx1 = Math.max(Math.min(x1, x2), 0) >> REGION_SHIFT;
+        int ry1 = Math.max(Math.min(y1, y2), 0) >> REGION_SHIFT;
+        int rx2 = Math.min(Math.max(x1, x2), width - 1) >> REGION_SHIFT;
+        int ry2 = Math.min(Math.max(y1, y2), height - 1) >> REGION_SHIFT;
+        
+        for (int ry = ry1; ry <= ry2; ry++) {
+            for (int rx = rx1; rx <= rx2; rx++) {
+                version = Math.max(version, regionVersions[ry * regionsWide + rx]);
+            }
+        }
+        
+        return version;
+    }
+    
+    private void touchRegions(int x1, int y1, int x2, int y2) {
+        tileVersion++;
+        
+        for (int ry = y1 >> REGION_SHIFT; ry <= y2 >> REGION_SHIFT; ry++) {
+            for (int rx = x1 >> REGION_SHIFT; rx <= x2 >> REGION_SHIFT; rx++) {
+                regionVersions[ry * regionsWide + rx] = tileVersion;
+            }
+        }
+    }
+    
+    /**
+     * Visits the location of every copy of a tile within the specified number
+     * of orthogonal steps of a location, in no particular order. Only
+     * {@link Tile#isIndexed() indexed} tiles can be found this way, and the
+     * cost depends only on how many of them lie nearby.
+     * 
+     * @param tile The tile to look for. MUST be indexed.
+     * @param x The x location around which to look
+     * @param y The y location around which to look
+     * @param radius The maximum number of orthogonal steps to a matching tile
+     * @param visitor The callback to hand each matching location to
+     */
+    public void forEachTileNear(Tile tile, int x, int y, int radius, TileVisitor visitor) {
+        if (!tile.isIndexed()) {
+            throw new IllegalArgumentException("Only indexed tiles can be searched for!");
+        }
+        
+        int x1 = Math.max(x - radius, 0);
+        int y1 = Math.max(y - radius, 0);
+        int x2 = Math.min(x + radius, width - 1);
+        int y2 = Math.min(y + radius, height - 1);
+        
+        if (radius >= 0 && x1 <= x2 && y1 <= y2)
+            tileIndex.forEachNear(tile.getTileId(), x, y, radius, x1, y1, x2, y2, visitor);
+    }
+    
+    /**
+     * Checks whether the tile at the specified location blocks line of sight.
+     * Locations outside of this world are always opaque.
+     */
+    public boolean isOpaque(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return true;
+        
+        return !storage.hasProperty(x, y, Tile.PROPERTY_TRANSPARENT);
+    }
+    
+    /**
+     * Checks whether the tile at the specified location can be walked across.
+     * Locations outside of this world are never passable.
+     */
+    public boolean isPassable(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return false;
+        
+        return storage.hasProperty(x, y, Tile.PROPERTY_PASSABLE);
+    }
+    
+    /**
+     * Checks whether world generation may carve into the tile at the specified
+     * location. Locations outside of this world are never carvable.
+     */
+    public boolean isCarvable(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return false;
+        
+        return storage.hasProperty(x, y, Tile.PROPERTY_CARVABLE);
     }
     
     /**
      * Checks whether a rectangular area is available for world generation. A
      * location is defined as being available if and only if it is composed
-     * solely of wall tiles.
+     * solely of carvable tiles.
      */
     public boolean isAvailable(WorldLocation l1, WorldLocation l2) {
         return isAvailable(l1.x, l1.y, l2.x, l2.y);
@@ -239,7 +527,7 @@ public class World {
     /**
      * Checks whether a rectangular area is available for world generation. A
      * location is defined as being available if and only if it is composed
-     * solely of wall tiles.
+     * solely of carvable tiles.
      */
     public boolean isAvailable(int x1, int y1, int x2, int y2) {
         int temp;
@@ -261,15 +549,9 @@ public class World {
             return false;
         }
         
-        // If any tile within the bounds isn't a wall, the area is unavailable
-        for (int x = x1; x <= x2; x++) {
-            for (int y = y1; y <= y2; y++) {
-                if (!(tiles[x][y] instanceof TileWall))
-                    return false;
-            }
-        }
-        
-        return true;
+        // If any tile within the bounds can't be carved, the area is
+        // unavailable
+        return storage.allHaveProperty(x1, y1, x2, y2, Tile.PROPERTY_CARVABLE);
     }
     
     /**
@@ -307,7 +589,7 @@ public class World {
             throw new IllegalArgumentException("Location is out of bounds!");
         }
         
-        return tileKnown[x][y];
+        return storage.isKnown(x, y);
     }
     
     public boolean isTileVisible(WorldLocation l) {
@@ -319,7 +601,7 @@ public class World {
             throw new IllegalArgumentException("Location is out of bounds!");
         }
         
-        return tileVisible[x][y];
+        return storage.isVisible(x, y);
     }
     
     public void setTileVisible(WorldLocation l, boolean visible) {
@@ -331,16 +613,130 @@ public class World {
             throw new IllegalArgumentException("Location is out of bounds!");
         }
         
-        tileVisible[x][y] = visible;
-        tileKnown[x][y] = true;
+        if (visible && !storage.isVisible(x, y)) {
+            if (litCount == litTiles.length)
+                litTiles = Arrays.copyOf(litTiles, litCount * 2);
+            litTiles[litCount++] = y * width + x;
+        }
+        
+        storage.setVisible(x, y, visible);
+        storage.setKnown(x, y);
     }
     
+    /**
+     * Marks every tile in this world as not visible. Only the tiles that have
+     * been made visible since the last call are touched, so the cost of this
+     * depends on the player's view rather than the size of the world.
+     */
     public void clearTileVisibility() {
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                tileVisible[x][y] = false;
-            }
+        for (int n = 0; n < litCount; n++) {
+            storage.setVisible(litTiles[n] % width, litTiles[n] / width, false);
         }
+        
+        litCount = 0;
+    }
+    
+    /**
+     * Checks whether any tile within a rectangular area is currently visible.
+     * Parts of the rectangle that lie outside of the world are ignored.
+     */
+    public boolean isAnyTileVisible(int x1, int y1, int x2, int y2) {
+        return isAnyBitSet(false, x1, y1, x2, y2);
+    }
+    
+    /**
+     * Checks whether any tile within a rectangular area is known to the
+     * player. Parts of the rectangle that lie outside of the world are
+     * ignored.
+     */
+    public boolean isAnyTileKnown(int x1, int y1, int x2, int y2) {
+        return isAnyBitSet(true, x1, y1, x2, y2);
+    }
+    
+    private boolean isAnyBitSet(boolean known, int x1, int y1, int x2, int y2) {
+        int temp;
+        
+        // Make sure x1 < x2 and y1 < y2
+        if (x1 > x2) {
+            temp = x1;
+            x1 = x2;
+            x2 = temp;
+        }
+        if (y1 > y2) {
+            temp = y1;
+            y1 = y2;
+            y2 = temp;
+        }
+        
+        // Clip the rectangle to the world bounds
+        x1 = Math.max(x1, 0);
+        y1 = Math.max(y1, 0);
+        x2 = Math.min(x2, width - 1);
+        y2 = Math.min(y2, height - 1);
+        
+        if (x1 > x2 || y1 > y2)
+            return false;
+        
+        return known ? storage.isAnyKnown(x1, y1, x2, y2) : storage.isAnyVisible(x1, y1, x2, y2);
+    }
+    
+    /**
+     * Checks whether an entity can be seen from a tile, however far apart they
+     * are. Sight is worked out by shadowcasting from the entity, which is
+     * symmetric, so this also says whether the entity can see the tile. A
+     * player's {@link EntityPlayer#getSightField() sight field} is used when
+     * it is current and covers the tile, and otherwise the same field of view
+     * is cast on the spot, so the answer is the same either way.
+     * 
+     * @param e The entity that should be checked for visibility. MUST be in
+     *            this world.
+     * @param x The x location of the tile from which the entity is seen
+     * @param y The y location of the tile from which the entity is seen
+     */
+    public boolean canBeSeenFrom(Entity e, int x, int y) {
+        int d = Math.abs(e.getX() - x) + Math.abs(e.getY() - y);
+        
+        if (e instanceof EntityPlayer) {
+            FieldOfView sight = ((EntityPlayer) e).getSightField();
+            
+            if (sight != null && sight.getRadius() >= d)
+                return sight.isVisible(x, y);
+        }
+        
+        return FieldOfView.compute(this, null, e.getX(), e.getY(), d).isVisible(x, y);
+    }
+    
+    /**
+     * Brings the {@link EntityPlayer#getSightField() sight field} of every
+     * player in this world up to date, so that it covers every tile from which
+     * an entity in this world could see them. This is done before any entity
+     * plans its turn. Every out of date field is computed in one
+     * {@link FieldOfViewBatch batch}.
+     */
+    public void updateSight() {
+        // Enough orthogonal steps to reach anywhere within the largest view
+        // distance of any entity, which is measured in a straight line
+        int r = maxViewDistance + (maxViewDistance + 1) / 2;
+        
+        for (int i = 0; i < entities.size(EntityPartition.PLAYERS); i++) {
+            EntityPlayer p = (EntityPlayer) entities.get(EntityPartition.PLAYERS, i);
+            FieldOfView sight = p.getSightField();
+            
+            if (sight == null || sight.getRadius() < r)
+                sightViewers.add(p);
+        }
+        
+        if (sightViewers.isEmpty())
+            return;
+        
+        FieldOfView[] fields = sightBatch.compute(this, sightViewers, r);
+        
+        for (int i = 0; i < fields.length; i++) {
+            EntityPlayer p = sightViewers.get(i);
+            p.setSightField(fields[i], getTileVersion(p.getX() - r, p.getY() - r, p.getX() + r, p.getY() + r));
+        }
+        
+        sightViewers.clear();
     }
     
     public int getFloor() {
@@ -352,9 +748,11 @@ public class World {
     }
     
     public void dropItemStack(ItemStack stack, int x, int y) {
-        List<Entity> entities = getEntities(x, y);
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IllegalArgumentException("Location is out of bounds!");
+        }
         
-        for (Entity e : entities) {
+        for (Entity e = cellHeads.get(y * width + x); e != null; e = cellNext.get(e.getEntityId())) {
             if (e instanceof EntityDroppedItem && ((EntityDroppedItem) e).getItemStack().getItem() == stack.getItem()
                     && ((EntityDroppedItem) e).getItemStack().getMetadata().equals(stack.getMetadata())) {
                 ((EntityDroppedItem) e).getItemStack().setAmount(
@@ -367,17 +765,174 @@ public class World {
     }
     
     public void addEntity(Entity e) {
-        entities.put(e.getEntityId(), e);
+        Entity old = entities.get(e.getEntityId());
+        
+        if (old == e)
+            return;
+        
+        entities.add(e);
+        linkEntity(e, e.getX(), e.getY());
+        
+        EntityPartition partition = EntityPartition.of(e);
+        
+        if (partition == EntityPartition.ENEMIES || partition == EntityPartition.OTHERS) {
+            // New arrivals get their first turn once they've waited as long
+            // as anybody else would have
+            scheduler.schedule(e, time + Math.max(e.getActionDelay(), 1));
+            
+            if (e instanceof EntityAlive)
+                maxViewDistance = Math.max(maxViewDistance, ((EntityAlive) e).getViewDistance());
+        }
     }
     
     public void removeEntity(Entity e) {
-        entities.remove(e.getEntityId());
+        if (entities.remove(e)) {
+            scheduler.remove(e);
+            
+            if (e.getWorld() == this)
+                unlinkEntity(e, e.getX(), e.getY());
+        }
+    }
+    
+    /**
+     * Wakes an entity that has been sleeping, so that it acts again on this
+     * world's next turn. Does nothing if the entity is not asleep.
+     */
+    public void wakeEntity(Entity e) {
+        if (entities.get(e.getEntityId()) == e && scheduler.isAsleep(e))
+            scheduler.schedule(e, time);
+    }
+    
+    /**
+     * Gets a boolean value representing whether an entity in this world is
+     * asleep, and will not act again until it is woken.
+     */
+    public boolean isEntityAsleep(Entity e) {
+        return entities.get(e.getEntityId()) == e && scheduler.isAsleep(e);
+    }
+    
+    /**
+     * Gets the number of ticks that have passed in this world. Time advances
+     * by {@link #TURN_LENGTH} each turn.
+     */
+    public long getTime() {
+        return time;
+    }
+    
+    /**
+     * Keeps the occupancy index up to date when an entity changes location.
+     * Called by {@link Entity#setLocation(WorldLocation)} on the world the
+     * entity was in before it moved; does nothing if the entity was never
+     * added to this world. An entity that moves into another world is removed
+     * from this one.
+     * 
+     * @param e The entity which has moved
+     * @param oldX The x location the entity has moved from
+     * @param oldY The y location the entity has moved from
+     */
+    public void updateEntityLocation(Entity e, int oldX, int oldY) {
+        if (entities.get(e.getEntityId()) != e)
+            return;
+        
+        unlinkEntity(e, oldX, oldY);
+        
+        if (e.getWorld() == this) {
+            linkEntity(e, e.getX(), e.getY());
+        } else {
+            entities.remove(e);
+            scheduler.remove(e);
+        }
+    }
+    
+    private void linkEntity(Entity e, int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return;
+        
+        Entity next = cellHeads.put(y * width + x, e);
+        
+        if (next != null)
+            cellNext.put(e.getEntityId(), next);
+        
+        entityGrid.add(e, x, y);
+    }
+    
+    private void unlinkEntity(Entity e, int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return;
+        
+        int cell = y * width + x;
+        Entity prev = null;
+        Entity current = cellHeads.get(cell);
+        
+        while (current != null && current != e) {
+            prev = current;
+            current = cellNext.get(current.getEntityId());
+        }
+        
+        if (current == null)
+            return;
+        
+        entityGrid.remove(e, x, y);
+        
+        Entity next = cellNext.remove(e.getEntityId());
+        
+        if (prev == null) {
+            if (next == null) {
+                cellHeads.remove(cell);
+            } else {
+                cellHeads.put(cell, next);
+            }
+        } else {
+            if (next == null) {
+                cellNext.remove(prev.getEntityId());
+            } else {
+                cellNext.put(prev.getEntityId(), next);
+            }
+        }
     }
     
     public Entity getEntity(int id) {
         return entities.get(id);
     }
     
+    /**
+     * Gets the number of entities in this world.
+     */
+    public int getEntityCount() {
+        return entities.size();
+    }
+    
+    /**
+     * Gets the number of entities in one partition of this world.
+     */
+    public int getEntityCount(EntityPartition partition) {
+        return entities.size(partition);
+    }
+    
+    /**
+     * Gets an entity from one partition of this world by its index within
+     * that partition. Together with {@link #getEntityCount(EntityPartition)},
+     * this allows the entities of a partition to be iterated without
+     * allocating. Indices change whenever an entity is added or removed.
+     */
+    public Entity getEntity(EntityPartition partition, int index) {
+        return entities.get(partition, index);
+    }
+    
+    /**
+     * Queues an entity for removal at the end of the current turn. Called by
+     * {@link Entity#die()}; does nothing if the entity is not in this world.
+     */
+    public void queueEntityRemoval(Entity e) {
+        if (entities.get(e.getEntityId()) != e)
+            return;
+        
+        if (deadCount == deadEntities.length)
+            deadEntities = Arrays.copyOf(deadEntities, deadCount * 2);
+        
+        deadEntities[deadCount++] = e;
+    }
+    
     public List<Entity> getEntities(WorldLocation l) {
         return getEntities(l.x, l.y);
     }
@@ -389,13 +944,12 @@ public class World {
         
         ArrayList<Entity> presentEntities = new ArrayList<Entity>();
         
-        for (Entry<Integer, Entity> e : entities.entrySet()) {
-            if (e.getValue().getLocation().equals(new WorldLocation(this, x, y))) {
-                presentEntities.add(e.getValue());
-            }
+        for (Entity e = cellHeads.get(y * width + x); e != null; e = cellNext.get(e.getEntityId())) {
+            presentEntities.add(e);
         }
         
-        Collections.sort(presentEntities);
+        if (presentEntities.size() > 1)
+            Collections.sort(presentEntities);
         return presentEntities;
     }
     
@@ -404,6 +958,31 @@ public class World {
     }
     
     public List<Entity> getEntities(int x1, int y1, int x2, int y2) {
+        final ArrayList<Entity> presentEntities = new ArrayList<Entity>();
+        
+        forEachEntityIn(x1, y1, x2, y2, new EntityVisitor() {
+            @Override
+            public void visit(Entity e) {
+                presentEntities.add(e);
+            }
+        });
+        
+        return presentEntities;
+    }
+    
+    /**
+     * Visits every entity within a rectangle, in draw order. Unlike
+     * {@link #getEntities(int, int, int, int)}, this does not allocate, so it
+     * is preferable for queries made every turn or every frame. Any part of
+     * the rectangle that lies outside of this world is ignored.
+     * 
+     * @param x1 The x location of one corner of the rectangle
+     * @param y1 The y location of one corner of the rectangle
+     * @param x2 The x location of the opposite corner of the rectangle
+     * @param y2 The y location of the opposite corner of the rectangle
+     * @param visitor The visitor to be handed each entity found
+     */
+    public void forEachEntityIn(int x1, int y1, int x2, int y2, EntityVisitor visitor) {
         int temp;
         
         // Make sure x1 < x2 and y1 < y2
@@ -418,39 +997,179 @@ public class World {
             y2 = temp;
         }
         
-        ArrayList<Entity> presentEntities = new ArrayList<Entity>();
-        
-        for (Entry<Integer, Entity> e : entities.entrySet()) {
-            WorldLocation l = e.getValue().getLocation();
-            if (l.x >= x1 && l.x <= x2 && l.y >= y1 && l.y <= y2) {
-                presentEntities.add(e.getValue());
-            }
-        }
+        x1 = Math.max(x1, 0);
+        y1 = Math.max(y1, 0);
+        x2 = Math.min(x2, width - 1);
+        y2 = Math.min(y2, height - 1);
         
-        Collections.sort(presentEntities);
-        return presentEntities;
+        if (x1 <= x2 && y1 <= y2)
+            entityGrid.forEach(x1, y1, x2, y2, visitor);
     }
     
     public void clearEntities() {
         entities.clear();
+        Arrays.fill(deadEntities, 0, deadCount, null);
+        deadCount = 0;
+        cellHeads.clear();
+        cellNext.clear();
+        entityGrid.clear();
+        scheduler.clear();
     }
     
     public GameInstance getGameInstance() {
         return game;
     }
     
+    /**
+     * Gets the random number generator used for anything happening in this
+     * world, such as combat. Each world has a generator of its own, split off
+     * from the game's when the world was created.
+     */
+    public GameRandom getRandom() {
+        return random;
+    }
+    
     public void doTurn() {
-        ArrayList<Integer> deadEntities = new ArrayList<Integer>();
+        // Players move first so that everybody else reacts to where they are
+        // now. Dropped items never do anything on their turn, so they are
+        // skipped entirely.
+        doTurn(EntityPartition.PLAYERS);
+        
+        time += TURN_LENGTH;
+        wakeSleepers();
+        
+        // Everything else acts as often as its speed allows, in order of
+        // when it is due. Everybody due at the same moment plans their turn
+        // at once, and then they act one at a time in order of entity ID.
+        while (scheduler.size() > 0 && scheduler.peekTime() <= time) {
+            long due = scheduler.peekTime();
+            int count = 0;
+            
+            while (scheduler.size() > 0 && scheduler.peekTime() == due) {
+                Entity e = scheduler.poll();
+                
+                if (isActive(e)) {
+                    if (count == planBuffer.length)
+                        planBuffer = Arrays.copyOf(planBuffer, count * 2);
+                    
+                    planBuffer[count++] = e;
+                }
+            }
+            
+            planTurns(planBuffer, count);
+            
+            for (int i = 0; i < count; i++) {
+                Entity e = planBuffer[i];
+                planBuffer[i] = null;
+                
+                // Skip anything that died or left this world earlier on
+                if (!isActive(e))
+                    continue;
+                
+                e.doTurn();
+                
+                if (isActive(e)) {
+                    if (e.isIdle()) {
+                        scheduler.sleep(e);
+                    } else {
+                        scheduler.schedule(e, due + Math.max(e.getActionDelay(), 1));
+                    }
+                }
+            }
+        }
+        
+        for (int i = 0; i < deadCount; i++) {
+            Entity e = deadEntities[i];
+            deadEntities[i] = null;
+            
+            if (entities.get(e.getEntityId()) == e) {
+                removeEntity(e);
+                game.releaseEntityId(e.getEntityId());
+            }
+        }
+        
+        deadCount = 0;
+    }
+    
+    private void doTurn(EntityPartition partition) {
+        Entity[] buffer = turnBuffer = entities.copy(partition, turnBuffer);
+        
+        for (int i = 0; buffer[i] != null; i++) {
+            Entity e = buffer[i];
+            buffer[i] = null;
+            
+            // Skip anything that died or left this world earlier in the turn
+            if (isActive(e))
+                e.doTurn();
+        }
+    }
+    
+    /**
+     * Plans the turns of a batch of entities, spreading large batches across
+     * the worker pool. Nothing changes the world while the plans are made, so
+     * every entity plans against the same state of the world.
+     */
+    private void planTurns(Entity[] batch, int count) {
+        // The flow field and sight fields are brought up to date first, as
+        // they can't be updated while being read by more than one thread
+        getFlowField().update();
+        updateSight();
         
-        for (Entry<Integer, Entity> e : entities.entrySet()) {
-            if (!e.getValue().isDead())
-                e.getValue().doTurn();
-            if (e.getValue().isDead())
-                deadEntities.add(e.getKey());
+        if (count >= PARALLEL_PLANNING) {
+            GameInstance.getWorkerPool().invoke(new PlanTask(batch, 0, count));
+        } else {
+            for (int i = 0; i < count; i++) {
+                batch[i].planTurn();
+            }
         }
+    }
+    
+    private boolean isActive(Entity e) {
+        return !e.isDead() && e.getWorld() == this && entities.get(e.getEntityId()) == e;
+    }
+    
+    /**
+     * Wakes every sleeping entity that a player has come within view distance
+     * of.
+     */
+    private void wakeSleepers() {
+        for (int i = 0; i < entities.size(EntityPartition.PLAYERS); i++) {
+            Entity p = entities.get(EntityPartition.PLAYERS, i);
+            
+            int d = maxViewDistance;
+            
+            wakeX = p.getX();
+            wakeY = p.getY();
+            forEachEntityIn(wakeX - d, wakeY - d, wakeX + d, wakeY + d, sleeperWaker);
+        }
+    }
+    
+    private static class PlanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        // The number of entities below which a task is not split up any
+        // further
+        private static final int THRESHOLD = 8;
         
-        for (Integer dead : deadEntities) {
-            entities.remove(dead);
+        private final Entity[] batch;
+        private final int from, to;
+        
+        private PlanTask(Entity[] batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    batch[i].planTurn();
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PlanTask(batch, from, mid), new PlanTask(batch, mid, to));
+            }
         }
     }
 }
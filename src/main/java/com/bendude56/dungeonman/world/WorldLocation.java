@@ -38,18 +38,7 @@ public class WorldLocation {
     }
     
     public WorldLocation adjustLocation(int deltaX, int deltaY, Direction dir) {
-        switch (dir) {
-        case NORTH:
-            return new WorldLocation(world, x + deltaX, y - deltaY);
-        case EAST:
-            return new WorldLocation(world, x + deltaY, y + deltaX);
-        case SOUTH:
-            return new WorldLocation(world, x - deltaX, y + deltaY);
-        case WEST:
-            return new WorldLocation(world, x - deltaY, y - deltaX);
-        default:
-            throw new IllegalArgumentException("Unknown direction!");
-        }
+        return new WorldLocation(world, dir.adjustX(x, deltaX, deltaY), dir.adjustY(y, deltaX, deltaY));
     }
     
     @Override
@@ -99,5 +88,49 @@ public class WorldLocation {
         public Direction rotateCounterClockwise() {
             return byValue[(value + 3) % 4];
         }
+        
+        /**
+         * Gets the x location reached by moving from the specified x location
+         * by an offset relative to this direction. This is the x part of
+         * {@link WorldLocation#adjustLocation(int, int, Direction)}.
+         * 
+         * @param x The x location to start from
+         * @param deltaX The distance to move to the right of this direction
+         * @param deltaY The distance to move forwards in this direction
+         */
+        public int adjustX(int x, int deltaX, int deltaY) {
+            switch (this) {
+            case NORTH:
+                return x + deltaX;
+            case EAST:
+                return x + deltaY;
+            case SOUTH:
+                return x - deltaX;
+            default:
+                return x - deltaY;
+            }
+        }
+        
+        /**
+         * Gets the y location reached by moving from the specified y location
+         * by an offset relative to this direction. This is the y part of
+         * {@link WorldLocation#adjustLocation(int, int, Direction)}.
+         * 
+         * @param y The y location to start from
+         * @param deltaX The distance to move to the right of this direction
+         * @param deltaY The distance to move forwards in this direction
+         */
+        public int adjustY(int y, int deltaX, int deltaY) {
+            switch (this) {
+            case NORTH:
+                return y - deltaY;
+            case EAST:
+                return y + deltaX;
+            case SOUTH:
+                return y + deltaY;
+            default:
+                return y - deltaX;
+            }
+        }
     }
 }
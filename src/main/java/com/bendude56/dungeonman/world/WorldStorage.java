@@ -0,0 +1,100 @@
+package com.bendude56.dungeonman.world;
+
+import com.bendude56.dungeonman.world.tile.TileMetadata;
+
+/**
+ * The backing store for the tiles of a {@link World}. A world performs all
+ * bounds checking before calling into its storage, so implementations may
+ * assume that every location and rectangle they are given lies within the
+ * world, and that x1 <= x2 and y1 <= y2 for any rectangle.
+ * <p>
+ * Implementations need not be thread safe, but any number of threads MUST be
+ * able to read from a storage at once as long as nothing is writing to it.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public interface WorldStorage {
+    /**
+     * Gets the width of the stored area, in tiles.
+     */
+    public int getWidth();
+    
+    /**
+     * Gets the height of the stored area, in tiles.
+     */
+    public int getHeight();
+    
+    /**
+     * Gets the ID of the tile at the specified location.
+     */
+    public int getTileId(int x, int y);
+    
+    /**
+     * Sets the ID of the tile at the specified location.
+     */
+    public void setTileId(int x, int y, int id);
+    
+    /**
+     * Sets every tile within a rectangle to the specified ID.
+     */
+    public void fillTileIds(int x1, int y1, int x2, int y2, int id);
+    
+    /**
+     * Checks whether every tile within a rectangle has the specified ID.
+     */
+    public boolean isFilled(int x1, int y1, int x2, int y2, int id);
+    
+    /**
+     * Checks whether the tile at the specified location has a property.
+     * 
+     * @param property One of the property flags defined by
+     *            {@link com.bendude56.dungeonman.world.tile.Tile}, such as
+     *            {@link com.bendude56.dungeonman.world.tile.Tile#PROPERTY_TRANSPARENT}
+     *            .
+     */
+    public boolean hasProperty(int x, int y, int property);
+    
+    /**
+     * Checks whether every tile within a rectangle has a property.
+     * 
+     * @param property One of the property flags defined by
+     *            {@link com.bendude56.dungeonman.world.tile.Tile}.
+     */
+    public boolean allHaveProperty(int x1, int y1, int x2, int y2, int property);
+    
+    /**
+     * Gets the metadata at the specified location, or
+     * {@link TileMetadata#NONE} if the location has no special metadata.
+     */
+    public TileMetadata getMetadata(int x, int y);
+    
+    /**
+     * Sets the metadata at the specified location. Setting null or plain
+     * {@link TileMetadata} clears any metadata at the location.
+     */
+    public void setMetadata(int x, int y, TileMetadata m);
+    
+    /**
+     * Clears any metadata within a rectangle.
+     */
+    public void clearMetadata(int x1, int y1, int x2, int y2);
+    
+    public boolean isKnown(int x, int y);
+    
+    public void setKnown(int x, int y);
+    
+    public boolean isVisible(int x, int y);
+    
+    public void setVisible(int x, int y, boolean visible);
+    
+    /**
+     * Checks whether any tile within a rectangle is visible.
+     */
+    public boolean isAnyVisible(int x1, int y1, int x2, int y2);
+    
+    /**
+     * Checks whether any tile within a rectangle is known.
+     */
+    public boolean isAnyKnown(int x1, int y1, int x2, int y2);
+}
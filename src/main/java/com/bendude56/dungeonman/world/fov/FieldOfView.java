@@ -0,0 +1,144 @@
+package com.bendude56.dungeonman.world.fov;
+
+import com.bendude56.dungeonman.entity.EntityAlive;
+import com.bendude56.dungeonman.world.World;
+
+/**
+ * The tiles that one viewer could see at the time it was computed. Only the
+ * square of tiles within the viewer's view distance is stored, one bit per
+ * tile, so a field of view stays small no matter how large its world is.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class FieldOfView {
+    private final EntityAlive viewer;
+    private final int originX, originY, radius;
+    private final int size;
+    private final long[] bits;
+    
+    FieldOfView(EntityAlive viewer, int originX, int originY, int radius) {
+        this.viewer = viewer;
+        this.originX = originX;
+        this.originY = originY;
+        this.radius = radius;
+        this.size = 2 * radius + 1;
+        this.bits = new long[(size * size + 63) / 64];
+    }
+    
+    /**
+     * Computes the field of view from the specified location, on the thread
+     * calling this method.
+     * 
+     * @param world The world in which the location lies
+     * @param viewer The entity whose field of view this is, or null if it is
+     *            not being computed for any particular entity
+     * @param x The x location from which the field of view is computed
+     * @param y The y location from which the field of view is computed
+     * @param radius The maximum number of orthogonal steps to a visible tile
+     */
+    public static FieldOfView compute(World world, EntityAlive viewer, int x, int y, int radius) {
+        FieldOfView view = new FieldOfView(viewer, x, y, radius);
+        
+        new Caster(world).compute(view);
+        return view;
+    }
+    
+    /**
+     * Gets the entity whose field of view this is, or null if it was not
+     * computed for any particular entity.
+     */
+    public EntityAlive getViewer() {
+        return viewer;
+    }
+    
+    /**
+     * Gets the x location from which this field of view was computed.
+     */
+    public int getOriginX() {
+        return originX;
+    }
+    
+    /**
+     * Gets the y location from which this field of view was computed.
+     */
+    public int getOriginY() {
+        return originY;
+    }
+    
+    /**
+     * Gets the view distance with which this field of view was computed.
+     */
+    public int getRadius() {
+        return radius;
+    }
+    
+    /**
+     * Checks whether the tile at the specified location was visible. Tiles
+     * outside of the view distance or outside of the world never are.
+     */
+    public boolean isVisible(int x, int y) {
+        int i = index(x, y);
+        
+        return i >= 0 && (bits[i >> 6] & (1L << i)) != 0;
+    }
+    
+    /**
+     * Gets the number of tiles that were visible.
+     */
+    public int getVisibleCount() {
+        int count = 0;
+        
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        
+        return count;
+    }
+    
+    void setVisible(int x, int y) {
+        int i = index(x, y);
+        
+        if (i >= 0)
+            bits[i >> 6] |= 1L << i;
+    }
+    
+    int index(int x, int y) {
+        int dx = x - originX + radius;
+        int dy = y - originY + radius;
+        
+        if (dx < 0 || dx >= size || dy < 0 || dy >= size)
+            return -1;
+        
+        return dy * size + dx;
+    }
+    
+    /**
+     * Fills in fields of view by reading the opacity of tiles straight out of
+     * a world.
+     */
+    static class Caster extends ShadowCaster {
+        private final World world;
+        private FieldOfView view;
+        
+        Caster(World world) {
+            this.world = world;
+        }
+        
+        void compute(FieldOfView view) {
+            this.view = view;
+            computeFieldOfView(view.getOriginX(), view.getOriginY(), view.getRadius());
+        }
+        
+        @Override
+        protected boolean isBlocking(int x, int y) {
+            return view.index(x, y) < 0 || world.isOpaque(x, y);
+        }
+        
+        @Override
+        protected void reveal(int x, int y) {
+            if (x >= 0 && x < world.getWidth() && y >= 0 && y < world.getHeight())
+                view.setVisible(x, y);
+        }
+    }
+}
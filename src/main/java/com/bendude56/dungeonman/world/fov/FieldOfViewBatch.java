@@ -0,0 +1,141 @@
+package com.bendude56.dungeonman.world.fov;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.bendude56.dungeonman.GameInstance;
+import com.bendude56.dungeonman.entity.Entity;
+import com.bendude56.dungeonman.entity.EntityAlive;
+import com.bendude56.dungeonman.world.EntityPartition;
+import com.bendude56.dungeonman.world.World;
+
+/**
+ * Computes the fields of view of many viewers at once, spreading the work
+ * across a {@link ForkJoinPool}. The workers all read the opacity of tiles
+ * straight out of the world's storage. This is safe because the thread that
+ * computes a batch waits for it to finish, and so cannot change the world
+ * while any of the workers are reading it.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class FieldOfViewBatch {
+    // The number of viewers below which a task is not split up any further
+    private static final int THRESHOLD = 4;
+    
+    private final ForkJoinPool pool;
+    
+    /**
+     * Creates a batch which runs on the shared
+     * {@link GameInstance#getWorkerPool() worker pool}.
+     */
+    public FieldOfViewBatch() {
+        this(GameInstance.getWorkerPool());
+    }
+    
+    public FieldOfViewBatch(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * Computes the field of view of every living entity in a world.
+     * 
+     * @param world The world whose entities should be checked
+     * 
+     * @return The fields of view, in no particular order
+     */
+    public FieldOfView[] compute(World world) {
+        List<EntityAlive> viewers = new ArrayList<EntityAlive>();
+        
+        for (EntityPartition p : EntityPartition.values()) {
+            for (int i = 0; i < world.getEntityCount(p); i++) {
+                Entity e = world.getEntity(p, i);
+                
+                if (e instanceof EntityAlive && !e.isDead())
+                    viewers.add((EntityAlive) e);
+            }
+        }
+        
+        return compute(world, viewers);
+    }
+    
+    /**
+     * Computes the field of view of each of the specified viewers, as seen
+     * from where they currently stand using their current view distance.
+     * 
+     * @param world The world in which the viewers are located
+     * @param viewers The viewers to compute fields of view for. MUST all be
+     *            in the specified world.
+     * 
+     * @return The fields of view, in the same order as the viewers
+     */
+    public FieldOfView[] compute(World world, List<? extends EntityAlive> viewers) {
+        return compute(world, viewers, -1);
+    }
+    
+    /**
+     * Computes the field of view of each of the specified viewers, as seen
+     * from where they currently stand. Batches too small to be split up are
+     * computed on the calling thread.
+     * 
+     * @param world The world in which the viewers are located
+     * @param viewers The viewers to compute fields of view for. MUST all be
+     *            in the specified world.
+     * @param radius The maximum number of orthogonal steps to a visible tile,
+     *            or -1 to use each viewer's current view distance
+     * 
+     * @return The fields of view, in the same order as the viewers
+     */
+    public FieldOfView[] compute(World world, List<? extends EntityAlive> viewers, int radius) {
+        FieldOfView[] results = new FieldOfView[viewers.size()];
+        
+        for (int i = 0; i < results.length; i++) {
+            EntityAlive v = viewers.get(i);
+            
+            if (v.getWorld() != world) {
+                throw new IllegalArgumentException("Viewer is not in the specified world!");
+            }
+            
+            results[i] = new FieldOfView(v, v.getX(), v.getY(), (radius < 0) ? v.getViewDistance() : radius);
+        }
+        
+        if (results.length > THRESHOLD) {
+            pool.invoke(new Task(world, results, 0, results.length));
+        } else if (results.length > 0) {
+            new Task(world, results, 0, results.length).compute();
+        }
+        
+        return results;
+    }
+    
+    private static class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final World world;
+        private final FieldOfView[] results;
+        private final int from, to;
+        
+        private Task(World world, FieldOfView[] results, int from, int to) {
+            this.world = world;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                FieldOfView.Caster caster = new FieldOfView.Caster(world);
+                
+                for (int i = from; i < to; i++) {
+                    caster.compute(results[i]);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Task(world, results, from, mid), new Task(world, results, mid, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.bendude56.dungeonman.world.fov;
+
+import com.bendude56.dungeonman.world.World;
+
+/**
+ * Remembers the most recently computed fields of view, so that a viewer who
+ * waits in place or paces around the same room does not need their field of
+ * view recomputed every turn. Each field of view is kept as the list of tiles
+ * it made visible, together with the
+ * {@link World#getTileVersion(int, int, int, int) tile version} of the area it
+ * covers, and is thrown away as soon as any tile in that area changes.
+ * <p>
+ * The least recently used field of view is replaced once the cache is full.
+ * A cache is not safe to use from more than one thread at a time.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class FieldOfViewCache {
+    private static final int DEFAULT_CAPACITY = 8;
+    
+    // Entries are kept in order of use, most recently used first
+    private final Entry[] entries;
+    private int size;
+    
+    // The world and entry being filled in by the current computation
+    private World world;
+    private Entry recording;
+    
+    private final ShadowCaster caster = new ShadowCaster() {
+        @Override
+        protected boolean isBlocking(int x, int y) {
+            return world.isOpaque(x, y);
+        }
+        
+        @Override
+        protected void reveal(int x, int y) {
+            if (x >= 0 && x < world.getWidth() && y >= 0 && y < world.getHeight()) {
+                world.setTileVisible(x, y, true);
+                recording.add(y * world.getWidth() + x);
+            }
+        }
+    };
+    
+    public FieldOfViewCache() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public FieldOfViewCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive!");
+        }
+        
+        this.entries = new Entry[capacity];
+    }
+    
+    /**
+     * Marks every tile that can be seen from the specified location as
+     * visible, reusing a remembered field of view if none of the tiles it
+     * covers have changed since it was computed.
+     * 
+     * @param world The world in which the viewer is located
+     * @param x The x location of the viewer
+     * @param y The y location of the viewer
+     * @param radius The maximum number of orthogonal steps to a visible tile
+     * 
+     * @return True if a remembered field of view was used, false if it had to
+     *         be computed
+     */
+    public boolean computeFieldOfView(World world, int x, int y, int radius) {
+        int version = world.getTileVersion(x - radius, y - radius, x + radius, y + radius);
+        
+        for (int i = 0; i < size; i++) {
+            Entry e = entries[i];
+            
+            if (e.world == world && e.x == x && e.y == y && e.radius == radius && e.version == version) {
+                moveToFront(i);
+                
+                for (int n = 0; n < e.count; n++) {
+                    world.setTileVisible(e.cells[n] % world.getWidth(), e.cells[n] / world.getWidth(), true);
+                }
+                
+                return true;
+            }
+        }
+        
+        // Reuse the least recently used entry rather than allocating a new one
+        Entry e;
+        
+        if (size < entries.length) {
+            e = new Entry();
+            entries[size++] = e;
+        } else {
+            e = entries[size - 1];
+        }
+        
+        moveToFront(size - 1);
+        
+        e.world = null;
+        e.x = x;
+        e.y = y;
+        e.radius = radius;
+        e.version = version;
+        e.count = 0;
+        
+        this.world = world;
+        this.recording = e;
+        
+        try {
+            caster.computeFieldOfView(x, y, radius);
+            e.world = world;
+        } finally {
+            this.world = null;
+            this.recording = null;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Forgets every remembered field of view.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            entries[i].world = null;
+        }
+        
+        size = 0;
+    }
+    
+    private void moveToFront(int i) {
+        Entry e = entries[i];
+        
+        System.arraycopy(entries, 0, entries, 1, i);
+        entries[0] = e;
+    }
+    
+    private static class Entry {
+        private World world;
+        private int x, y, radius;
+        private int version;
+        
+        private int[] cells = new int[64];
+        private int count;
+        
+        private void add(int cell) {
+            if (count == cells.length) {
+                int[] newCells = new int[cells.length * 2];
+                System.arraycopy(cells, 0, newCells, 0, count);
+                cells = newCells;
+            }
+            
+            cells[count++] = cell;
+        }
+    }
+}
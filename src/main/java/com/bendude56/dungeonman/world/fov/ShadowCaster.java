@@ -0,0 +1,143 @@
+package com.bendude56.dungeonman.world.fov;
+
+/**
+ * Computes fields of view using symmetric recursive shadowcasting. Each of
+ * the four quadrants around the viewer is scanned outwards one row at a time,
+ * and the parts of each row hidden behind blocking tiles are skipped, so the
+ * whole field is found in a single pass that touches each tile at most once.
+ * <p>
+ * The result is symmetric: if one floor tile is visible from another, the
+ * second is also visible from the first. Blocking tiles at the edge of the
+ * field are revealed, so walls are seen as well as floors. Slopes are kept as
+ * integer fractions, so there is no rounding error however large the field
+ * grows.
+ * <p>
+ * Subclasses decide what blocks sight and what to do with each visible tile.
+ * A caster keeps no state between calls to
+ * {@link #computeFieldOfView(int, int, int)}, but is not safe to use from
+ * more than one thread at a time.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public abstract class ShadowCaster {
+    private int originX, originY, radius;
+    
+    // The quadrant currently being scanned; one of NORTH, EAST, SOUTH, WEST
+    private int quadrant;
+    
+    private static final int NORTH = 0;
+    private static final int EAST = 1;
+    private static final int SOUTH = 2;
+    private static final int WEST = 3;
+    
+    /**
+     * Checks whether the tile at the specified location blocks sight. Called
+     * for every tile the scan reaches, including tiles outside of the world.
+     */
+    protected abstract boolean isBlocking(int x, int y);
+    
+    /**
+     * Called once for each tile found to be visible. A tile may occasionally
+     * be reported more than once.
+     */
+    protected abstract void reveal(int x, int y);
+    
+    /**
+     * Computes the field of view of a viewer at the specified location,
+     * calling {@link #reveal(int, int)} for every visible tile. A tile is only
+     * considered in view if it lies within the specified distance of the
+     * viewer, where distance is measured as the number of orthogonal steps
+     * between them.
+     * 
+     * @param x The x location of the viewer
+     * @param y The y location of the viewer
+     * @param radius The maximum number of orthogonal steps to a visible tile
+     */
+    public void computeFieldOfView(int x, int y, int radius) {
+        this.originX = x;
+        this.originY = y;
+        this.radius = radius;
+        
+        reveal(x, y);
+        
+        for (quadrant = NORTH; quadrant <= WEST; quadrant++) {
+            scan(1, -1, 1, 1, 1);
+        }
+    }
+    
+    /**
+     * Scans one row of the current quadrant, recursing into the rows behind
+     * it. The row covers the slopes from startNum / startDen to endNum /
+     * endDen, where slope is the column divided by the depth.
+     */
+    private void scan(int depth, int startNum, int startDen, int endNum, int endDen) {
+        if (depth > radius)
+            return;
+        
+        // Columns whose centres lie within the slopes, with ties rounding
+        // towards the inside of the row
+        int minCol = floorDiv(2 * depth * startNum + startDen, 2 * startDen);
+        int maxCol = -floorDiv(-(2 * depth * endNum - endDen), 2 * endDen);
+        int width = radius - depth;
+        boolean prevWall = false;
+        boolean first = true;
+        
+        for (int col = minCol; col <= maxCol; col++) {
+            boolean wall = isBlocking(toX(depth, col), toY(depth, col));
+            
+            // Floors are only visible if their centre is within the row's
+            // slopes, which is what makes the result symmetric
+            if (col >= -width && col <= width) {
+                if (wall || (col * startDen >= depth * startNum && col * endDen <= depth * endNum))
+                    reveal(toX(depth, col), toY(depth, col));
+            }
+            
+            if (!first && prevWall && !wall) {
+                startNum = 2 * col - 1;
+                startDen = 2 * depth;
+            }
+            
+            if (!first && !prevWall && wall)
+                scan(depth + 1, startNum, startDen, 2 * col - 1, 2 * depth);
+            
+            prevWall = wall;
+            first = false;
+        }
+        
+        if (!first && !prevWall)
+            scan(depth + 1, startNum, startDen, endNum, endDen);
+    }
+    
+    private int toX(int depth, int col) {
+        switch (quadrant) {
+        case NORTH:
+        case SOUTH:
+            return originX + col;
+        case EAST:
+            return originX + depth;
+        default:
+            return originX - depth;
+        }
+    }
+    
+    private int toY(int depth, int col) {
+        switch (quadrant) {
+        case NORTH:
+            return originY - depth;
+        case SOUTH:
+            return originY + depth;
+        default:
+            return originY + col;
+        }
+    }
+    
+    private static int floorDiv(int a, int b) {
+        int q = a / b;
+        
+        if ((a % b != 0) && ((a < 0) != (b < 0)))
+            q--;
+        
+        return q;
+    }
+}
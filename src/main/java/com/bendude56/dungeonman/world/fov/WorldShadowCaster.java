@@ -0,0 +1,44 @@
+package com.bendude56.dungeonman.world.fov;
+
+import com.bendude56.dungeonman.world.World;
+
+/**
+ * A {@link ShadowCaster} which reads the opacity of a {@link World} and marks
+ * every tile in view as visible (and therefore known) in that world.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class WorldShadowCaster extends ShadowCaster {
+    private World world;
+    
+    /**
+     * Marks every tile that can be seen from the specified location as
+     * visible. Tiles that were already visible are left visible.
+     * 
+     * @param world The world in which the viewer is located
+     * @param x The x location of the viewer
+     * @param y The y location of the viewer
+     * @param radius The maximum number of orthogonal steps to a visible tile
+     */
+    public void computeFieldOfView(World world, int x, int y, int radius) {
+        this.world = world;
+        
+        try {
+            computeFieldOfView(x, y, radius);
+        } finally {
+            this.world = null;
+        }
+    }
+    
+    @Override
+    protected boolean isBlocking(int x, int y) {
+        return world.isOpaque(x, y);
+    }
+    
+    @Override
+    protected void reveal(int x, int y) {
+        if (x >= 0 && x < world.getWidth() && y >= 0 && y < world.getHeight())
+            world.setTileVisible(x, y, true);
+    }
+}
@@ -1,6 +1,7 @@
 package com.bendude56.dungeonman.world.gen;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -17,21 +18,35 @@ import com.bendude56.dungeonman.world.tile.TileMetadataDoor;
 
 public class KeyGenerator {
     private World world;
-    private List<WorldLocation> possibleItems;
     private Random random;
     
-    private ArrayList<WorldLocation> checkedLocations;
-    private ArrayList<WorldLocation> lastLocations;
-    private ArrayList<WorldLocation> itemLocations;
-    private ArrayList<WorldLocation> newLocations;
-    private WorldLocation door;
+    // Bitsets indexed by (y * width + x)
+    private long[] possibleItems;
+    private long[] checkedLocations;
+    
+    // The cells waiting to be expanded by the search, and the possible item
+    // locations that the search has reached
+    private int[] queue;
+    private int queueTail;
+    private int[] itemLocations;
+    private int itemCount;
+    private int door;
     
     private ArrayList<Integer> unlockedDoors = new ArrayList<Integer>();
     
     public KeyGenerator(World world, List<WorldLocation> possibleItems, Random random) {
+        int area = world.getWidth() * world.getHeight();
+        
         this.world = world;
-        this.possibleItems = possibleItems;
         this.random = random;
+        this.possibleItems = new long[(area + 63) >> 6];
+        this.checkedLocations = new long[this.possibleItems.length];
+        this.queue = new int[area];
+        this.itemLocations = new int[possibleItems.size()];
+        
+        for (WorldLocation l : possibleItems) {
+            setBit(this.possibleItems, l.y * world.getWidth() + l.x);
+        }
     }
     
     /**
@@ -47,70 +62,83 @@ public class KeyGenerator {
     }
     
     private int generateKeyForNextDoor() {
-        checkedLocations = new ArrayList<WorldLocation>();
-        lastLocations = new ArrayList<WorldLocation>();
-        itemLocations = new ArrayList<WorldLocation>();
-        newLocations = new ArrayList<WorldLocation>();
-        door = null;
+        int width = world.getWidth();
+        WorldLocation entry = world.getEntryLocation();
         
-        lastLocations.add(world.getEntryLocation());
+        Arrays.fill(checkedLocations, 0);
+        queueTail = 0;
+        itemCount = 0;
+        door = -1;
         
-        while (lastLocations.size() > 0) {
-            newLocations = new ArrayList<WorldLocation>();
-            for (WorldLocation l : lastLocations) {
-                checkLocation(l.adjustLocation(0, 1));
-                checkLocation(l.adjustLocation(0, -1));
-                checkLocation(l.adjustLocation(1, 0));
-                checkLocation(l.adjustLocation(-1, 0));
-            }
+        queue[queueTail++] = entry.y * width + entry.x;
+        setBit(checkedLocations, entry.y * width + entry.x);
+        
+        for (int head = 0; head < queueTail; head++) {
+            int x = queue[head] % width;
+            int y = queue[head] / width;
             
-            lastLocations = newLocations;
+            checkLocation(x, y - 1);
+            checkLocation(x, y + 1);
+            checkLocation(x + 1, y);
+            checkLocation(x - 1, y);
         }
         
-        if (door == null) {
+        if (door < 0) {
             // No doors were found to unlock
             return -1;
+        } else if (itemCount == 0) {
+            // If there are no possible locations for the key, just leave the
+            // door unlocked
+            world.setMetadata(door % width, door / width, new TileMetadataDoor(-1));
+            return Integer.MAX_VALUE;
         } else {
             // Select a location for the key
-            try {
-                int k = random.nextInt(itemLocations.size());
-                
-                WorldLocation key = itemLocations.get(k);
-                int keyId = ((TileMetadataDoor) door.getMetadata()).getKeyId();
-                
-                world.dropItemStack(new ItemStack(Item.key, new ItemMetadataKey(keyId, world.getFloor()), 1), key);
-                itemLocations.remove(k);
-                
-                return keyId;
-            } catch (IllegalArgumentException e) {
-                // If there are no possible locations for the key, just leave
-                // the door unlocked
-                door.setMetadata(new TileMetadataDoor(-1));
-                return Integer.MAX_VALUE;
-            }
+            int key = itemLocations[random.nextInt(itemCount)];
+            int keyId = ((TileMetadataDoor) world.getMetadata(door % width, door / width)).getKeyId();
+            
+            world.dropItemStack(new ItemStack(Item.key, new ItemMetadataKey(keyId, world.getFloor()), 1), key % width,
+                    key / width);
+            
+            return keyId;
         }
     }
     
-    private void checkLocation(WorldLocation l) {
-        if (!checkedLocations.contains(l)) {
-            if (l.getTile().canItemAlgorithmPass()) {
-                newLocations.add(l);
-                if (possibleItems.contains(l)) {
-                    itemLocations.add(l);
-                }
-            } else if (l.getMetadata() instanceof TileMetadataDoor) {
-                if (!((TileMetadataDoor) l.getMetadata()).isLocked()
-                        || unlockedDoors.contains(((TileMetadataDoor) l.getMetadata()).getKeyId())) {
-                    newLocations.add(l);
-                    if (possibleItems.contains(l)) {
-                        itemLocations.add(l);
-                    }
-                } else if (door == null) {
-                    door = l;
-                }
+    private void checkLocation(int x, int y) {
+        if (x < 0 || x >= world.getWidth() || y < 0 || y >= world.getHeight())
+            return;
+        
+        int cell = y * world.getWidth() + x;
+        
+        if (getBit(checkedLocations, cell))
+            return;
+        
+        setBit(checkedLocations, cell);
+        
+        if (world.isPassable(x, y)) {
+            addLocation(cell);
+        } else if (world.getMetadata(x, y) instanceof TileMetadataDoor) {
+            TileMetadataDoor m = (TileMetadataDoor) world.getMetadata(x, y);
+            
+            if (!m.isLocked() || unlockedDoors.contains(m.getKeyId())) {
+                addLocation(cell);
+            } else if (door < 0) {
+                door = cell;
             }
         }
+    }
+    
+    private void addLocation(int cell) {
+        queue[queueTail++] = cell;
         
-        checkedLocations.add(l);
+        if (getBit(possibleItems, cell))
+            itemLocations[itemCount++] = cell;
+    }
+    
+    private static boolean getBit(long[] bits, int i) {
+        return (bits[i >> 6] & (1L << i)) != 0;
+    }
+    
+    private static void setBit(long[] bits, int i) {
+        bits[i >> 6] |= 1L << i;
     }
 }
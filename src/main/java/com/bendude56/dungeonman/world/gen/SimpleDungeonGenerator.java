@@ -17,8 +17,10 @@ import com.bendude56.dungeonman.world.WorldLocation.Direction;
 import com.bendude56.dungeonman.world.gen.WorldFeature.DoorType;
 import com.bendude56.dungeonman.world.gen.WorldFeature.WallInfo;
 import com.bendude56.dungeonman.world.gen.WorldFeature.WorldFeatureInfo;
+import com.bendude56.dungeonman.world.path.RegionGraph;
 import com.bendude56.dungeonman.world.tile.Tile;
 import com.bendude56.dungeonman.world.tile.TileMetadataStairs;
+import com.bendude56.dungeonman.world.tile.TileStateView;
 
 /**
  * @author Benjamin C. Thomas
@@ -29,6 +31,7 @@ public class SimpleDungeonGenerator extends WorldGenerator {
     private ArrayList<WorldLocation> possibleStairs = new ArrayList<WorldLocation>();
     private ArrayList<WorldLocation> possibleItems = new ArrayList<WorldLocation>();
     private ArrayList<WorldLocation> possibleMonsters = new ArrayList<WorldLocation>();
+    private RegionGraph regions;
     
     public SimpleDungeonGenerator(World world) {
         super(world);
@@ -36,10 +39,15 @@ public class SimpleDungeonGenerator extends WorldGenerator {
     
     @Override
     public void generateLevel(int difficulty, int floor) {
+        // Every feature becomes a region, joined to its parent by a portal at
+        // its door
+        regions = new RegionGraph(world);
+        world.setRegionGraph(regions);
+        
         // Start the generation algorithm with a 4x4 room in the center of the
         // map
         generate(new WorldFeatureRoom(4, 4), new WorldLocation(world, world.getWidth() / 2, world.getHeight() / 2),
-                DoorType.NONE, null, 0);
+                DoorType.NONE, null, 0, -1);
         
         // Select locations for entry and exit stairs
         if (possibleStairs.size() < 2) {
@@ -78,15 +86,23 @@ public class SimpleDungeonGenerator extends WorldGenerator {
      * @param orientation The orientation of this feature.
      * @param iteration The iteration of the algorithm represented by this
      *            feature.
+     * @param parentRegion The region of the feature to which this feature is
+     *            joined, or -1 if it is the first feature.
      * 
      * @return True if the generation was successful, false otherwise.
      */
-    public boolean generate(WorldFeature f, WorldLocation l, DoorType door, Direction orientation, int iteration) {
+    public boolean generate(WorldFeature f, WorldLocation l, DoorType door, Direction orientation, int iteration,
+            int parentRegion) {
         WorldFeatureInfo info;
         
         if (f.checkLocation(l, orientation)) {
             info = f.generateAt(door, l, orientation, random);
             
+            int region = regions.addRegion(info.x1, info.y1, info.x2, info.y2);
+            
+            if (parentRegion >= 0)
+                regions.addPortal(l.x, l.y, parentRegion, region);
+            
             for (WorldLocation possibleLocation : info.possibleStairs)
                 possibleStairs.add(possibleLocation);
             
@@ -97,7 +113,7 @@ public class SimpleDungeonGenerator extends WorldGenerator {
                 possibleMonsters.add(possibleLocation);
             
             if (iteration < 7) {
-                generateChildren(f, info, iteration);
+                generateChildren(f, info, iteration, region);
             }
             
             return true;
@@ -113,9 +129,10 @@ public class SimpleDungeonGenerator extends WorldGenerator {
      * @param info The feature information (provided by the feature's generation
      *            function)
      * @param iteration The iteration represented by the specified feature.
+     * @param region The region of the specified feature.
      */
     @SuppressWarnings("unchecked")
-    public void generateChildren(WorldFeature f, WorldFeatureInfo info, int iteration) {
+    public void generateChildren(WorldFeature f, WorldFeatureInfo info, int iteration, int region) {
         int numRooms, numCorridors;
         
         if (f instanceof WorldFeatureCorridor) {
@@ -141,13 +158,14 @@ public class SimpleDungeonGenerator extends WorldGenerator {
             DoorType door = DoorType.getRandomType(random);
             
             tryGenerate(new WorldFeatureRoom(random.nextInt(5) + 3, random.nextInt(5) + 3), (List<WallInfo>) info.walls.clone(),
-                    door, iteration);
+                    door, iteration, region);
         }
         
         for (int i = 0; i < numCorridors; i++) {
             DoorType door = (f instanceof WorldFeatureRoom) ? DoorType.getRandomType(random) : DoorType.NONE;
             
-            tryGenerate(new WorldFeatureCorridor(random.nextInt(10) + 5), (List<WallInfo>) info.walls.clone(), door, iteration);
+            tryGenerate(new WorldFeatureCorridor(random.nextInt(10) + 5), (List<WallInfo>) info.walls.clone(), door, iteration,
+                    region);
         }
     }
     
@@ -164,13 +182,15 @@ public class SimpleDungeonGenerator extends WorldGenerator {
      * @param door The type of door that should be generated on the specified
      *            world feature.
      * @param iteration The iteration represented by the last generated feature
+     * @param parentRegion The region of the last generated feature
      */
     public void tryGenerate(WorldFeature f, List<WallInfo> walls, DoorType door,
-            int iteration) {
+            int iteration, int parentRegion) {
         while (walls.size() > 0) {
             int location = random.nextInt(walls.size());
             
-            if (generate(f, walls.get(location).location, door, walls.get(location).orientation, iteration + 1)) {
+            if (generate(f, walls.get(location).location, door, walls.get(location).orientation, iteration + 1,
+                    parentRegion)) {
                 return;
             } else {
                 walls.remove(location);
@@ -190,9 +210,10 @@ public class SimpleDungeonGenerator extends WorldGenerator {
     public static void showDialog(World w) {
         BufferedImage img = new BufferedImage(w.getWidth(), w.getHeight(), BufferedImage.TYPE_INT_RGB);
         int[] p = new int[w.getWidth() * w.getHeight()];
+        TileStateView view = new TileStateView();
         for (int y = 0; y < w.getHeight(); y++) {
             for (int x = 0; x < w.getWidth(); x++) {
-                p[(y * w.getWidth()) + x] = w.getTile(x, y).getColor(w.getTileState(x, y)).getRGB();
+                p[(y * w.getWidth()) + x] = w.getTile(x, y).getColor(view.moveTo(w, x, y)).getRGB();
             }
         }
         img.setRGB(0, 0, w.getWidth(), w.getHeight(), p, 0, w.getWidth());
@@ -3,6 +3,7 @@ package com.bendude56.dungeonman.world.gen;
 import java.util.ArrayList;
 import java.util.Random;
 
+import com.bendude56.dungeonman.world.World;
 import com.bendude56.dungeonman.world.WorldLocation;
 import com.bendude56.dungeonman.world.WorldLocation.Direction;
 import com.bendude56.dungeonman.world.tile.Tile;
@@ -45,24 +46,36 @@ public abstract class WorldFeature {
      * @param door The type of door that should be created.
      */
     public void setDoor(WorldLocation l, DoorType door) {
+        setDoor(l.world, l.x, l.y, door);
+    }
+    
+    /**
+     * Sets the specified door type at the requested location.
+     * 
+     * @param world The world in which the door should be set.
+     * @param x The x location to be set.
+     * @param y The y location to be set.
+     * @param door The type of door that should be created.
+     */
+    public void setDoor(World world, int x, int y, DoorType door) {
         if (door == DoorType.NONE) {
-            l.setTile(Tile.stoneFloor);
+            world.setTile(x, y, Tile.stoneFloor);
         } else if (door == DoorType.NORMAL) {
-            l.setTile(Tile.door);
-            l.setMetadata(new TileMetadataDoor(-1));
+            world.setTileAndMetadata(x, y, Tile.door, new TileMetadataDoor(-1));
         } else if (door == DoorType.SECRET) {
-            l.setTile(Tile.secretDoor);
-            l.setMetadata(new TileMetadataDoor(-1));
+            world.setTileAndMetadata(x, y, Tile.secretDoor, new TileMetadataDoor(-1));
         } else if (door == DoorType.LOCKED) {
-            l.setTile(Tile.door);
-            l.setMetadata(new TileMetadataDoor(l.world.getGameInstance().generateKeyId()));
+            world.setTileAndMetadata(x, y, Tile.door, new TileMetadataDoor(world.getGameInstance().generateKeyId()));
         } else if (door == DoorType.SECRET_LOCKED) {
-            l.setTile(Tile.secretDoor);
-            l.setMetadata(new TileMetadataDoor(l.world.getGameInstance().generateKeyId()));
+            world.setTileAndMetadata(x, y, Tile.secretDoor, new TileMetadataDoor(world.getGameInstance().generateKeyId()));
         }
     }
     
     public static class WorldFeatureInfo {
+        // The bounds of the open area carved out by the feature, not counting
+        // the door joining it to its parent
+        public int x1, y1, x2, y2;
+        
         public ArrayList<WallInfo> walls = new ArrayList<WallInfo>();
         public ArrayList<WorldLocation> possibleItems = new ArrayList<WorldLocation>();
         public ArrayList<WorldLocation> possibleStairs = new ArrayList<WorldLocation>();
@@ -19,26 +19,42 @@ public class WorldFeatureCorridor extends WorldFeature {
     
     @Override
     public boolean checkLocation(WorldLocation l, Direction orientation) {
-        return l.world.isAvailable(l.adjustLocation(-1, corridorLength, orientation), l.adjustLocation(1, 0, orientation));
+        return l.world.isAvailable(orientation.adjustX(l.x, -1, corridorLength),
+                orientation.adjustY(l.y, -1, corridorLength), orientation.adjustX(l.x, 1, 0),
+                orientation.adjustY(l.y, 1, 0));
     }
     
     @Override
     public WorldFeatureInfo generateAt(DoorType door, WorldLocation l, Direction orientation, Random random) {
         WorldFeatureInfo info = new WorldFeatureInfo();
+        int x = l.x, y = l.y;
+        
+        // The corridor starts on the far side of its door
+        info.x1 = info.x2 = orientation.adjustX(x, 0, 1);
+        info.y1 = info.y2 = orientation.adjustY(y, 0, 1);
         
         for (int i = 0; i < corridorLength; i++) {
-            if (i == 0)
-                setDoor(l, door);
-            else
-                l.setTile(Tile.stoneFloor);
+            if (i == 0) {
+                setDoor(l.world, x, y, door);
+            } else {
+                l.world.setTile(x, y, Tile.stoneFloor);
+                
+                info.x1 = Math.min(info.x1, x);
+                info.y1 = Math.min(info.y1, y);
+                info.x2 = Math.max(info.x2, x);
+                info.y2 = Math.max(info.y2, y);
+            }
             
-            info.walls.add(new WallInfo(l.adjustLocation(1, 0, orientation), orientation.rotateClockwise()));
-            info.walls.add(new WallInfo(l.adjustLocation(-1, 0, orientation), orientation.rotateCounterClockwise()));
+            info.walls.add(new WallInfo(new WorldLocation(l.world, orientation.adjustX(x, 1, 0), orientation.adjustY(y, 1,
+                    0)), orientation.rotateClockwise()));
+            info.walls.add(new WallInfo(new WorldLocation(l.world, orientation.adjustX(x, -1, 0), orientation.adjustY(y,
+                    -1, 0)), orientation.rotateCounterClockwise()));
             
-            l = l.adjustLocation(0, 1, orientation);
+            x = orientation.adjustX(x, 0, 1);
+            y = orientation.adjustY(y, 0, 1);
         }
         
-        info.walls.add(new WallInfo(l, orientation));
+        info.walls.add(new WallInfo(new WorldLocation(l.world, x, y), orientation));
         
         return info;
     }
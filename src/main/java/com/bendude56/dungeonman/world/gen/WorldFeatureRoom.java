@@ -21,19 +21,19 @@ public class WorldFeatureRoom extends WorldFeature {
     
     @Override
     public boolean checkLocation(WorldLocation l, Direction orientation) {
-        WorldLocation l1, l2;
+        int x1, y1;
         
         if (orientation == null) {
-            l1 = l.adjustLocation(-((width / 2) + 1), (height / 2) + 1);
-            l2 = l1.adjustLocation(width + 2, -(height + 2));
-            
-            return l.world.isAvailable(l1, l2);
+            orientation = Direction.NORTH;
+            x1 = orientation.adjustX(l.x, -((width / 2) + 1), (height / 2) + 1);
+            y1 = orientation.adjustY(l.y, -((width / 2) + 1), (height / 2) + 1);
         } else {
-            l1 = l.adjustLocation(-((width / 2) + 1), height + 2, orientation);
-            l2 = l1.adjustLocation(width + 2, -(height + 2), orientation);
-            
-            return l.world.isAvailable(l1, l2);
+            x1 = orientation.adjustX(l.x, -((width / 2) + 1), height + 2);
+            y1 = orientation.adjustY(l.y, -((width / 2) + 1), height + 2);
         }
+        
+        return l.world.isAvailable(x1, y1, orientation.adjustX(x1, width + 2, -(height + 2)),
+                orientation.adjustY(y1, width + 2, -(height + 2)));
     }
     
     @Override
@@ -47,6 +47,7 @@ public class WorldFeatureRoom extends WorldFeature {
             l2 = l1.adjustLocation(width, -height);
             
             l.world.setRect(l1, l2, Tile.stoneFloor);
+            setBounds(info, l1.x, l1.y, l2.x, l2.y);
             
             for (int x = l1.x; x <= l2.x; x++) {
                 info.walls.add(new WallInfo(new WorldLocation(l.world, x, l1.y - 1), Direction.NORTH));
@@ -82,6 +83,7 @@ public class WorldFeatureRoom extends WorldFeature {
             }
             
             l.world.setRect(x1, y1, x2, y2, Tile.stoneFloor);
+            setBounds(info, x1, y1, x2, y2);
             
             for (int i = 0; i <= width; i++) {
                 info.walls.add(new WallInfo(l1.adjustLocation(i, 1, orientation), orientation));
@@ -108,4 +110,11 @@ public class WorldFeatureRoom extends WorldFeature {
         return info;
     }
     
+    private void setBounds(WorldFeatureInfo info, int x1, int y1, int x2, int y2) {
+        info.x1 = Math.min(x1, x2);
+        info.y1 = Math.min(y1, y2);
+        info.x2 = Math.max(x1, x2);
+        info.y2 = Math.max(y1, y2);
+    }
+    
 }
@@ -12,9 +12,14 @@ public abstract class WorldGenerator {
     public World world;
     public Random random;
     
+    /**
+     * Creates a generator for the specified world. Its random numbers are
+     * seeded from the world's {@link World#getRandom() generator}, so a world
+     * belonging to a seeded game is always generated the same way.
+     */
     public WorldGenerator(World world) {
         this.world = world;
-        this.random = new Random();
+        this.random = new Random(world.getRandom().nextLong());
     }
     
     /**
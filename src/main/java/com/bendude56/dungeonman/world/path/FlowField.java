@@ -0,0 +1,239 @@
+package com.bendude56.dungeonman.world.path;
+
+import java.util.Arrays;
+
+import com.bendude56.dungeonman.entity.Entity;
+import com.bendude56.dungeonman.world.EntityPartition;
+import com.bendude56.dungeonman.world.World;
+
+/**
+ * The walking distance from every tile near the players in a {@link World}
+ * to the closest of those players. An entity chasing a player can find its
+ * next step by moving to whichever neighbouring tile is one step closer, so a
+ * single breadth-first search serves every entity chasing the players no
+ * matter how many of them there are.
+ * <p>
+ * The distances only reach out a fixed number of steps from the players. They
+ * are recomputed the first time they are needed after a player moves or a
+ * tile near the players changes.
+ * <p>
+ * A flow field is not safe to use from more than one thread at a time, except
+ * that once it has been brought {@link #update() up to date} it may be read
+ * from any number of threads as long as no player moves and no tile changes
+ * in the meantime.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class FlowField {
+    public static final int DEFAULT_RADIUS = 32;
+    
+    private static final int[] STEP_X = { 0, 1, 0, -1 };
+    private static final int[] STEP_Y = { -1, 0, 1, 0 };
+    
+    private final World world;
+    private final int radius;
+    
+    // The area covered by the distances, and the tile version of that area
+    // when they were computed
+    private int left, top, right, bottom;
+    private int version;
+    private boolean valid;
+    
+    // Distances are indexed by position within the covered area, and are only
+    // meaningful if the tile's stamp matches the last computation
+    private int[] distance = new int[0];
+    private int[] seen = new int[0];
+    private int[] queue = new int[0];
+    private int stamp;
+    
+    // The tiles on which the players stood, as y * width + x
+    private int[] sources = new int[4];
+    private int sourceCount;
+    
+    public FlowField(World world) {
+        this(world, DEFAULT_RADIUS);
+    }
+    
+    /**
+     * Creates a new flow field.
+     * 
+     * @param world The world whose players should be tracked
+     * @param radius The maximum number of steps from a player for which
+     *            distances are computed
+     */
+    public FlowField(World world, int radius) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("Flow field radius must be positive!");
+        }
+        
+        this.world = world;
+        this.radius = radius;
+    }
+    
+    /**
+     * Gets the number of steps from the specified tile to the closest player.
+     * 
+     * @return The number of steps, or -1 if the tile lies too far away from
+     *         any player or has no path to one
+     */
+    public int getDistance(int x, int y) {
+        update();
+        
+        int i = index(x, y);
+        
+        return (i >= 0 && seen[i] == stamp) ? distance[i] : -1;
+    }
+    
+    /**
+     * Finds the first step along a shortest path from one tile towards a
+     * player. Only paths towards a tile on which a player currently stands can
+     * be found.
+     * 
+     * @param x The x location from which the path starts
+     * @param y The y location from which the path starts
+     * @param targetX The x location of the player being chased
+     * @param targetY The y location of the player being chased
+     * 
+     * @return The tile to step onto, as y * width + x, or -1 if no player
+     *         stands on the target tile or no path to it is known
+     */
+    public int findNextStep(int x, int y, int targetX, int targetY) {
+        int d = getDistance(x, y);
+        
+        if (d <= 0 || !isSource(targetY * world.getWidth() + targetX))
+            return -1;
+        
+        for (int n = 0; n < 4; n++) {
+            int nx = x + STEP_X[n];
+            int ny = y + STEP_Y[n];
+            int i = index(nx, ny);
+            
+            if (i >= 0 && seen[i] == stamp && distance[i] == d - 1)
+                return ny * world.getWidth() + nx;
+        }
+        
+        return -1;
+    }
+    
+    private boolean isSource(int cell) {
+        for (int i = 0; i < sourceCount; i++) {
+            if (sources[i] == cell)
+                return true;
+        }
+        
+        return false;
+    }
+    
+    private int index(int x, int y) {
+        if (x < left || x > right || y < top || y > bottom)
+            return -1;
+        
+        return (y - top) * (right - left + 1) + (x - left);
+    }
+    
+    /**
+     * Recomputes the distances if any player has moved or any tile they cover
+     * has changed since they were last computed. This is done automatically
+     * whenever the distances are read.
+     */
+    public void update() {
+        int count = world.getEntityCount(EntityPartition.PLAYERS);
+        boolean changed = !valid || count != sourceCount
+                || (count > 0 && world.getTileVersion(left, top, right, bottom) != version);
+        
+        for (int i = 0; i < count && !changed; i++) {
+            Entity e = world.getEntity(EntityPartition.PLAYERS, i);
+            changed = sources[i] != e.getY() * world.getWidth() + e.getX();
+        }
+        
+        if (changed)
+            compute();
+    }
+    
+    private void compute() {
+        int count = world.getEntityCount(EntityPartition.PLAYERS);
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        
+        if (sources.length < count)
+            sources = new int[Math.max(count, sources.length * 2)];
+        
+        for (int i = 0; i < count; i++) {
+            Entity e = world.getEntity(EntityPartition.PLAYERS, i);
+            
+            sources[i] = e.getY() * world.getWidth() + e.getX();
+            minX = Math.min(minX, e.getX());
+            minY = Math.min(minY, e.getY());
+            maxX = Math.max(maxX, e.getX());
+            maxY = Math.max(maxY, e.getY());
+        }
+        
+        sourceCount = count;
+        valid = true;
+        
+        if (count == 0) {
+            // Cover nothing at all
+            left = top = 0;
+            right = bottom = -1;
+            version = 0;
+            return;
+        }
+        
+        left = Math.max(minX - radius, 0);
+        top = Math.max(minY - radius, 0);
+        right = Math.min(maxX + radius, world.getWidth() - 1);
+        bottom = Math.min(maxY + radius, world.getHeight() - 1);
+        version = world.getTileVersion(left, top, right, bottom);
+        
+        int area = (right - left + 1) * (bottom - top + 1);
+        
+        if (distance.length < area) {
+            distance = new int[area];
+            seen = new int[area];
+            queue = new int[area];
+            stamp = 0;
+        }
+        
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        
+        int head = 0, tail = 0;
+        
+        for (int i = 0; i < count; i++) {
+            int s = index(sources[i] % world.getWidth(), sources[i] / world.getWidth());
+            
+            if (seen[s] != stamp) {
+                seen[s] = stamp;
+                distance[s] = 0;
+                queue[tail++] = s;
+            }
+        }
+        
+        // Every step costs the same, so a breadth-first search visits tiles in
+        // order of distance
+        int wide = right - left + 1;
+        
+        while (head < tail) {
+            int i = queue[head++];
+            
+            if (distance[i] >= radius)
+                continue;
+            
+            int x = left + i % wide;
+            int y = top + i / wide;
+            
+            for (int n = 0; n < 4; n++) {
+                int j = index(x + STEP_X[n], y + STEP_Y[n]);
+                
+                if (j >= 0 && seen[j] != stamp && world.isPassable(x + STEP_X[n], y + STEP_Y[n])) {
+                    seen[j] = stamp;
+                    distance[j] = distance[i] + 1;
+                    queue[tail++] = j;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.bendude56.dungeonman.world.path;
+
+import java.util.Arrays;
+
+import com.bendude56.dungeonman.world.World;
+
+/**
+ * Finds paths through a {@link World} using A* search over passable tiles,
+ * moving in the four orthogonal directions. Every search is confined to a
+ * square window around its starting point and gives up after expanding a
+ * fixed number of tiles, so no single search can stall a turn. All of the
+ * buffers used by a search are allocated up front and reused, so a search
+ * does not allocate.
+ * <p>
+ * If the target can't be reached within those limits, the search heads for
+ * whichever tile it found that lies closest to the target instead.
+ * <p>
+ * A path finder is not safe to use from more than one thread at a time.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class PathFinder {
+    public static final int DEFAULT_RADIUS = 48;
+    public static final int DEFAULT_BUDGET = 2048;
+    
+    private static final int[] STEP_X = { 0, 1, 0, -1 };
+    private static final int[] STEP_Y = { -1, 0, 1, 0 };
+    
+    private final World world;
+    private final int radius, size, budget;
+    
+    // Per-tile search state, indexed by position within the search window.
+    // A tile's entries are only meaningful if its stamp matches the current
+    // search, which saves clearing the arrays between searches.
+    private final int[] cost;
+    private final int[] parent;
+    private final int[] seen;
+    private final int[] closed;
+    private int stamp;
+    
+    // The open set, as a binary heap ordered by estimated total cost and then
+    // by estimated remaining cost
+    private final int[] heapNodes;
+    private final int[] heapTotal;
+    private final int[] heapRemaining;
+    private int heapSize;
+    
+    public PathFinder(World world) {
+        this(world, DEFAULT_RADIUS, DEFAULT_BUDGET);
+    }
+    
+    /**
+     * Creates a new path finder.
+     * 
+     * @param world The world in which paths should be found
+     * @param radius The furthest a path may stray from its starting point,
+     *            along either axis
+     * @param budget The maximum number of tiles that a single search may
+     *            expand
+     */
+    public PathFinder(World world, int radius, int budget) {
+        if (radius <= 0 || budget <= 0) {
+            throw new IllegalArgumentException("Search radius and budget must be positive!");
+        }
+        
+        this.world = world;
+        this.radius = radius;
+        this.size = 2 * radius + 1;
+        this.budget = budget;
+        
+        this.cost = new int[size * size];
+        this.parent = new int[size * size];
+        this.seen = new int[size * size];
+        this.closed = new int[size * size];
+        
+        // Every expanded tile pushes at most four neighbours
+        this.heapNodes = new int[4 * budget + 1];
+        this.heapTotal = new int[4 * budget + 1];
+        this.heapRemaining = new int[4 * budget + 1];
+    }
+    
+    /**
+     * Gets the world in which this path finder searches.
+     */
+    public World getWorld() {
+        return world;
+    }
+    
+    /**
+     * Finds the first step along a path from one tile towards another. The
+     * target tile itself is treated as passable, so that a path may end on
+     * an occupied or closed tile.
+     * 
+     * @param startX The x location from which the path starts
+     * @param startY The y location from which the path starts
+     * @param targetX The x location towards which the path leads
+     * @param targetY The y location towards which the path leads
+     * 
+     * @return The tile to step onto, as y * width + x, or -1 if no step gets
+     *         any closer to the target
+     */
+    public int findNextStep(int startX, int startY, int targetX, int targetY) {
+        if (startX == targetX && startY == targetY)
+            return -1;
+        
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            stamp = 1;
+        }
+        
+        int left = startX - radius;
+        int top = startY - radius;
+        int start = radius * size + radius;
+        int best = start;
+        int bestRemaining = distance(startX, startY, targetX, targetY);
+        int expanded = 0;
+        
+        seen[start] = stamp;
+        cost[start] = 0;
+        heapSize = 0;
+        push(start, bestRemaining, bestRemaining);
+        
+        while (heapSize > 0 && expanded < budget) {
+            int node = pop();
+            
+            if (closed[node] == stamp)
+                continue;
+            
+            closed[node] = stamp;
+            expanded++;
+            
+            int x = left + node % size;
+            int y = top + node / size;
+            int remaining = distance(x, y, targetX, targetY);
+            
+            if (remaining < bestRemaining) {
+                best = node;
+                bestRemaining = remaining;
+                
+                if (remaining == 0)
+                    break;
+            }
+            
+            for (int d = 0; d < 4; d++) {
+                int nx = x + STEP_X[d];
+                int ny = y + STEP_Y[d];
+                
+                if (nx < left || nx >= left + size || ny < top || ny >= top + size)
+                    continue;
+                if ((nx != targetX || ny != targetY) && !world.isPassable(nx, ny))
+                    continue;
+                
+                int n = (ny - top) * size + (nx - left);
+                int g = cost[node] + 1;
+                
+                if (closed[n] != stamp && (seen[n] != stamp || g < cost[n])) {
+                    int h = distance(nx, ny, targetX, targetY);
+                    
+                    seen[n] = stamp;
+                    cost[n] = g;
+                    parent[n] = node;
+                    push(n, g + h, h);
+                }
+            }
+        }
+        
+        if (best == start)
+            return -1;
+        
+        // Walk back along the path to the step taken from the start
+        while (parent[best] != start) {
+            best = parent[best];
+        }
+        
+        return (top + best / size) * world.getWidth() + (left + best % size);
+    }
+    
+    private static int distance(int x1, int y1, int x2, int y2) {
+        return Math.abs(x1 - x2) + Math.abs(y1 - y2);
+    }
+    
+    private boolean before(int a, int b) {
+        return heapTotal[a] < heapTotal[b] || (heapTotal[a] == heapTotal[b] && heapRemaining[a] < heapRemaining[b]);
+    }
+    
+    private void push(int node, int total, int remaining) {
+        int i = heapSize++;
+        
+        heapNodes[i] = node;
+        heapTotal[i] = total;
+        heapRemaining[i] = remaining;
+        
+        while (i > 0 && before(i, (i - 1) >> 1)) {
+            swap(i, (i - 1) >> 1);
+            i = (i - 1) >> 1;
+        }
+    }
+    
+    private int pop() {
+        int node = heapNodes[0];
+        int i = 0;
+        
+        heapSize--;
+        swap(0, heapSize);
+        
+        while (true) {
+            int child = 2 * i + 1;
+            
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && before(child + 1, child))
+                child++;
+            if (!before(child, i))
+                break;
+            
+            swap(i, child);
+            i = child;
+        }
+        
+        return node;
+    }
+    
+    private void swap(int a, int b) {
+        int temp = heapNodes[a];
+        heapNodes[a] = heapNodes[b];
+        heapNodes[b] = temp;
+        
+        temp = heapTotal[a];
+        heapTotal[a] = heapTotal[b];
+        heapTotal[b] = temp;
+        
+        temp = heapRemaining[a];
+        heapRemaining[a] = heapRemaining[b];
+        heapRemaining[b] = temp;
+    }
+}
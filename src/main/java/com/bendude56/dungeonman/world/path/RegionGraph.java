@@ -0,0 +1,432 @@
+package com.bendude56.dungeonman.world.path;
+
+import java.util.Arrays;
+
+import com.bendude56.dungeonman.GameInstance;
+import com.bendude56.dungeonman.util.IntHashMap;
+import com.bendude56.dungeonman.world.World;
+
+/**
+ * A coarse map of how the open areas of a {@link World} connect to each
+ * other. The world is described as a set of rectangular regions, such as the
+ * rooms and corridors built by a world generator, joined by single-tile
+ * portals, such as the doors between them. A long path can be planned over
+ * this graph first and then walked one portal at a time, so that no tile
+ * search ever has to span more than a couple of regions.
+ * <p>
+ * A portal can only be passed while its tile is passable. The world
+ * {@link #updatePortals(int, int, int, int) updates} its graph whenever a tile
+ * is set, so opening or unlocking a door opens the portal on it.
+ * <p>
+ * Routes may be searched for by the thread running the world's turns and by
+ * the workers of the {@link GameInstance#getWorkerPool() worker pool} at once,
+ * as each thread searches with its own buffers, but the graph MUST NOT be
+ * changed while any search is running. No other thread may search it.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class RegionGraph {
+    // Regions are looked up through a grid of 16x16 tile buckets, each
+    // listing the regions that overlap it
+    private static final int BUCKET_SHIFT = 4;
+    
+    private final World world;
+    private final int bucketsWide;
+    private final int[][] buckets;
+    
+    // The bounds of each region, as x1, y1, x2, y2, and the portals out of it
+    private int[] regionBounds = new int[64];
+    private int[][] regionPortals = new int[16][];
+    private int[] regionPortalCounts = new int[16];
+    private int regionCount;
+    
+    // Each portal's tile, as y * width + x, and the two regions it joins
+    private int[] portalCells = new int[16];
+    private int[] portalRegionsA = new int[16];
+    private int[] portalRegionsB = new int[16];
+    private boolean[] portalOpen = new boolean[16];
+    private int portalCount;
+    private IntHashMap<Integer> portalsByCell = new IntHashMap<Integer>();
+    
+    // The buffers for each thread's searches, indexed by
+    // GameInstance.getWorkerSlot(). The array is replaced rather than changed
+    // whenever buffers are added, so that it can be read without locking.
+    private volatile Search[] searches = new Search[1];
+    
+    public RegionGraph(World world) {
+        this.world = world;
+        this.bucketsWide = ((world.getWidth() - 1) >> BUCKET_SHIFT) + 1;
+        this.buckets = new int[bucketsWide * (((world.getHeight() - 1) >> BUCKET_SHIFT) + 1)][];
+    }
+    
+    /**
+     * Gets the world described by this graph.
+     */
+    public World getWorld() {
+        return world;
+    }
+    
+    /**
+     * Gets the number of regions in this graph.
+     */
+    public int getRegionCount() {
+        return regionCount;
+    }
+    
+    /**
+     * Gets the number of portals in this graph.
+     */
+    public int getPortalCount() {
+        return portalCount;
+    }
+    
+    /**
+     * Adds a rectangular region to this graph. Regions should not overlap.
+     * 
+     * @return The ID of the new region
+     */
+    public int addRegion(int x1, int y1, int x2, int y2) {
+        if (x1 > x2 || y1 > y2 || x1 < 0 || y1 < 0 || x2 >= world.getWidth() || y2 >= world.getHeight()) {
+            throw new IllegalArgumentException("Region must be a valid rectangle within the world!");
+        }
+        
+        int region = regionCount++;
+        
+        if (regionBounds.length < regionCount * 4) {
+            regionBounds = Arrays.copyOf(regionBounds, regionBounds.length * 2);
+            regionPortals = Arrays.copyOf(regionPortals, regionPortals.length * 2);
+            regionPortalCounts = Arrays.copyOf(regionPortalCounts, regionPortalCounts.length * 2);
+        }
+        
+        regionBounds[region * 4] = x1;
+        regionBounds[region * 4 + 1] = y1;
+        regionBounds[region * 4 + 2] = x2;
+        regionBounds[region * 4 + 3] = y2;
+        regionPortals[region] = new int[4];
+        
+        for (int by = y1 >> BUCKET_SHIFT; by <= y2 >> BUCKET_SHIFT; by++) {
+            for (int bx = x1 >> BUCKET_SHIFT; bx <= x2 >> BUCKET_SHIFT; bx++) {
+                int b = by * bucketsWide + bx;
+                int[] bucket = (buckets[b] == null) ? new int[1] : Arrays.copyOf(buckets[b], buckets[b].length + 1);
+                
+                bucket[bucket.length - 1] = region;
+                buckets[b] = bucket;
+            }
+        }
+        
+        return region;
+    }
+    
+    /**
+     * Adds a portal joining two regions of this graph. The portal is open for
+     * as long as the tile it lies on is passable.
+     * 
+     * @param x The x location of the portal's tile
+     * @param y The y location of the portal's tile
+     * @param regionA One of the regions joined by the portal
+     * @param regionB The other region joined by the portal
+     * 
+     * @return The ID of the new portal
+     */
+    public int addPortal(int x, int y, int regionA, int regionB) {
+        if (regionA < 0 || regionA >= regionCount || regionB < 0 || regionB >= regionCount) {
+            throw new IllegalArgumentException("Portal must join two existing regions!");
+        }
+        
+        int portal = portalCount++;
+        
+        if (portalCells.length < portalCount) {
+            portalCells = Arrays.copyOf(portalCells, portalCells.length * 2);
+            portalRegionsA = Arrays.copyOf(portalRegionsA, portalRegionsA.length * 2);
+            portalRegionsB = Arrays.copyOf(portalRegionsB, portalRegionsB.length * 2);
+            portalOpen = Arrays.copyOf(portalOpen, portalOpen.length * 2);
+        }
+        
+        portalCells[portal] = y * world.getWidth() + x;
+        portalRegionsA[portal] = regionA;
+        portalRegionsB[portal] = regionB;
+        portalOpen[portal] = world.isPassable(x, y);
+        portalsByCell.put(portalCells[portal], portal);
+        
+        linkPortal(regionA, portal);
+        if (regionB != regionA)
+            linkPortal(regionB, portal);
+        
+        return portal;
+    }
+    
+    private void linkPortal(int region, int portal) {
+        if (regionPortalCounts[region] == regionPortals[region].length)
+            regionPortals[region] = Arrays.copyOf(regionPortals[region], regionPortals[region].length * 2);
+        
+        regionPortals[region][regionPortalCounts[region]++] = portal;
+    }
+    
+    /**
+     * Checks whether a portal can currently be passed.
+     */
+    public boolean isPortalOpen(int portal) {
+        return portalOpen[portal];
+    }
+    
+    /**
+     * Rechecks whether each portal within a rectangle can be passed. Called by
+     * the world whenever its tiles are set.
+     */
+    public void updatePortals(int x1, int y1, int x2, int y2) {
+        if (x1 == x2 && y1 == y2) {
+            Integer portal = portalsByCell.get(y1 * world.getWidth() + x1);
+            
+            if (portal != null)
+                portalOpen[portal] = world.isPassable(x1, y1);
+        } else {
+            for (int i = 0; i < portalCount; i++) {
+                int x = portalCells[i] % world.getWidth();
+                int y = portalCells[i] / world.getWidth();
+                
+                if (x >= x1 && x <= x2 && y >= y1 && y <= y2)
+                    portalOpen[i] = world.isPassable(x, y);
+            }
+        }
+    }
+    
+    /**
+     * Gets the region that contains the specified tile.
+     * 
+     * @return The ID of the region, or -1 if the tile lies outside of every
+     *         region
+     */
+    public int getRegionAt(int x, int y) {
+        if (x < 0 || x >= world.getWidth() || y < 0 || y >= world.getHeight())
+            return -1;
+        
+        int[] bucket = buckets[(y >> BUCKET_SHIFT) * bucketsWide + (x >> BUCKET_SHIFT)];
+        
+        if (bucket != null) {
+            for (int region : bucket) {
+                if (x >= regionBounds[region * 4] && y >= regionBounds[region * 4 + 1]
+                        && x <= regionBounds[region * 4 + 2] && y <= regionBounds[region * 4 + 3])
+                    return region;
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Plans a route between two tiles over this graph, and finds the first
+     * portal along it. A path between the tiles can then be found by heading
+     * for one portal at a time.
+     * 
+     * @param startX The x location from which the route starts
+     * @param startY The y location from which the route starts
+     * @param targetX The x location at which the route ends
+     * @param targetY The y location at which the route ends
+     * 
+     * @return The tile of the first portal to head for, as y * width + x, or
+     *         -1 if both tiles share a region, either tile lies outside of
+     *         every region or no route through open portals exists
+     */
+    public int findWaypoint(int startX, int startY, int targetX, int targetY) {
+        int width = world.getWidth();
+        Integer startPortal = portalsByCell.get(startY * width + startX);
+        Integer targetPortal = portalsByCell.get(targetY * width + targetX);
+        int start1, start2, target1, target2;
+        
+        // A tile on a portal counts as lying in both of the portal's regions
+        if (startPortal != null) {
+            start1 = portalRegionsA[startPortal];
+            start2 = portalRegionsB[startPortal];
+        } else {
+            start1 = start2 = getRegionAt(startX, startY);
+        }
+        
+        if (targetPortal != null) {
+            target1 = portalRegionsA[targetPortal];
+            target2 = portalRegionsB[targetPortal];
+        } else {
+            target1 = target2 = getRegionAt(targetX, targetY);
+        }
+        
+        if (start1 < 0 || target1 < 0 || start1 == target1 || start1 == target2 || start2 == target1
+                || start2 == target2)
+            return -1;
+        
+        Search s = getSearch();
+        s.prepare(portalCells.length);
+        
+        // Start from every open portal out of the starting regions
+        int skip = (startPortal != null) ? startPortal : -1;
+        
+        seedSearch(s, start1, startX, startY, targetX, targetY, skip);
+        if (start2 != start1)
+            seedSearch(s, start2, startX, startY, targetX, targetY, skip);
+        
+        while (s.heapSize > 0) {
+            int portal = s.pop();
+            
+            if (s.closed[portal] == s.stamp)
+                continue;
+            
+            s.closed[portal] = s.stamp;
+            
+            int a = portalRegionsA[portal];
+            int b = portalRegionsB[portal];
+            
+            // The remaining estimate is exact for the last step into the target
+            // region, so the first such portal taken from the heap is the best
+            if (a == target1 || a == target2 || b == target1 || b == target2) {
+                while (s.parent[portal] >= 0) {
+                    portal = s.parent[portal];
+                }
+                
+                return portalCells[portal];
+            }
+            
+            expand(s, portal, a, targetX, targetY);
+            if (b != a)
+                expand(s, portal, b, targetX, targetY);
+        }
+        
+        return -1;
+    }
+    
+    private Search getSearch() {
+        int slot = GameInstance.getWorkerSlot();
+        Search[] s = searches;
+        
+        if (slot < s.length && s[slot] != null)
+            return s[slot];
+        
+        return createSearch(slot);
+    }
+    
+    private synchronized Search createSearch(int slot) {
+        Search[] s = searches;
+        
+        if (slot < s.length && s[slot] != null)
+            return s[slot];
+        
+        s = Arrays.copyOf(s, Math.max(s.length, slot + 1));
+        s[slot] = new Search();
+        searches = s;
+        
+        return s[slot];
+    }
+    
+    private void seedSearch(Search s, int region, int x, int y, int targetX, int targetY, int skip) {
+        for (int i = 0; i < regionPortalCounts[region]; i++) {
+            int p = regionPortals[region][i];
+            
+            if (p != skip && portalOpen[p])
+                relax(s, p, -1, distance(x, y, portalCells[p]), targetX, targetY);
+        }
+    }
+    
+    private void expand(Search s, int portal, int region, int targetX, int targetY) {
+        int x = portalCells[portal] % world.getWidth();
+        int y = portalCells[portal] / world.getWidth();
+        
+        for (int i = 0; i < regionPortalCounts[region]; i++) {
+            int p = regionPortals[region][i];
+            
+            if (portalOpen[p] && s.closed[p] != s.stamp)
+                relax(s, p, portal, s.cost[portal] + distance(x, y, portalCells[p]), targetX, targetY);
+        }
+    }
+    
+    private void relax(Search s, int portal, int from, int g, int targetX, int targetY) {
+        if (s.seen[portal] != s.stamp || g < s.cost[portal]) {
+            s.seen[portal] = s.stamp;
+            s.cost[portal] = g;
+            s.parent[portal] = from;
+            s.push(portal, g + distance(targetX, targetY, portalCells[portal]));
+        }
+    }
+    
+    private int distance(int x, int y, int cell) {
+        return Math.abs(x - cell % world.getWidth()) + Math.abs(y - cell / world.getWidth());
+    }
+    
+    /**
+     * The buffers used by one thread's searches.
+     */
+    private static class Search {
+        // Indexed by portal, and only meaningful if the portal's stamp matches
+        // the current search
+        private int[] cost = new int[0];
+        private int[] parent = new int[0];
+        private int[] seen = new int[0];
+        private int[] closed = new int[0];
+        private int stamp;
+        
+        // The open set, as a binary heap ordered by estimated total cost
+        private int[] heapNodes = new int[16];
+        private int[] heapTotal = new int[16];
+        private int heapSize;
+        
+        private void prepare(int portals) {
+            if (cost.length < portals) {
+                cost = new int[portals];
+                parent = new int[portals];
+                seen = new int[portals];
+                closed = new int[portals];
+                stamp = 0;
+            }
+            
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(seen, 0);
+                Arrays.fill(closed, 0);
+                stamp = 1;
+            }
+            
+            heapSize = 0;
+        }
+        
+        private void push(int node, int total) {
+            if (heapSize == heapNodes.length) {
+                heapNodes = Arrays.copyOf(heapNodes, heapNodes.length * 2);
+                heapTotal = Arrays.copyOf(heapTotal, heapTotal.length * 2);
+            }
+            
+            int i = heapSize++;
+            
+            while (i > 0 && total < heapTotal[(i - 1) >> 1]) {
+                heapNodes[i] = heapNodes[(i - 1) >> 1];
+                heapTotal[i] = heapTotal[(i - 1) >> 1];
+                i = (i - 1) >> 1;
+            }
+            
+            heapNodes[i] = node;
+            heapTotal[i] = total;
+        }
+        
+        private int pop() {
+            int node = heapNodes[0];
+            int lastNode = heapNodes[--heapSize];
+            int lastTotal = heapTotal[heapSize];
+            int i = 0;
+            
+            while (true) {
+                int child = 2 * i + 1;
+                
+                if (child >= heapSize)
+                    break;
+                if (child + 1 < heapSize && heapTotal[child + 1] < heapTotal[child])
+                    child++;
+                if (heapTotal[child] >= lastTotal)
+                    break;
+                
+                heapNodes[i] = heapNodes[child];
+                heapTotal[i] = heapTotal[child];
+                i = child;
+            }
+            
+            heapNodes[i] = lastNode;
+            heapTotal[i] = lastTotal;
+            
+            return node;
+        }
+    }
+}
@@ -2,7 +2,7 @@ package com.bendude56.dungeonman.world.tile;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.util.HashMap;
+import java.util.Arrays;
 
 import com.bendude56.dungeonman.entity.Entity;
 import com.bendude56.dungeonman.entity.EntityPlayer;
@@ -12,7 +12,33 @@ import com.bendude56.dungeonman.entity.EntityPlayer;
  */
 
 public abstract class Tile {
-    private static HashMap<Integer, Tile> tiles = new HashMap<Integer, Tile>();
+    /**
+     * Property flag set for tiles which are {@link #isTransparent()
+     * transparent}.
+     */
+    public static final int PROPERTY_TRANSPARENT = 1;
+    
+    /**
+     * Property flag set for tiles which {@link #canItemAlgorithmPass() can be
+     * walked across}.
+     */
+    public static final int PROPERTY_PASSABLE = 1 << 1;
+    
+    /**
+     * Property flag set for tiles which are {@link #isCarvable() carvable}.
+     */
+    public static final int PROPERTY_CARVABLE = 1 << 2;
+    
+    /**
+     * The number of property flags.
+     */
+    public static final int PROPERTY_COUNT = 3;
+    
+    // Set on every entry of the property table that has been filled in
+    private static final int PROPERTIES_LOADED = 1 << 31;
+    
+    private static Tile[] tiles = new Tile[8];
+    private static int[] properties = new int[8];
     
     public static TileWall wall = new TileWall();
     public static TileStoneFloor stoneFloor = new TileStoneFloor();
@@ -27,13 +53,70 @@ public abstract class Tile {
     private int id;
     
     public Tile(int tileId) {
-        if (tiles.containsKey(tileId))
+        if (tileId < 0 || tileId > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Tile ID is out of range!");
+        
+        if (tileId >= tiles.length) {
+            tiles = Arrays.copyOf(tiles, Math.max(tileId + 1, tiles.length * 2));
+            properties = Arrays.copyOf(properties, tiles.length);
+        }
+        
+        if (tiles[tileId] != null)
             throw new IllegalStateException("Duplicate tile ID!");
         
-        tiles.put(tileId, this);
+        tiles[tileId] = this;
         this.id = tileId;
     }
     
+    /**
+     * Gets the tile that has been registered with the specified identifier.
+     * 
+     * @param tileId The unique identifier of the tile to get.
+     * 
+     * @return The tile with the given identifier, or null if no such tile has
+     *         been registered.
+     */
+    public static Tile getTile(int tileId) {
+        if (tileId < 0 || tileId >= tiles.length)
+            return null;
+        
+        return tiles[tileId];
+    }
+    
+    /**
+     * Gets the property flags of the tile with the specified identifier. The
+     * flags are looked up once per tile and then kept in a table, so this is
+     * much cheaper than calling each property method in a hot loop.
+     * 
+     * @param tileId The unique identifier of the tile.
+     * 
+     * @return Any combination of {@link #PROPERTY_TRANSPARENT},
+     *         {@link #PROPERTY_PASSABLE} and {@link #PROPERTY_CARVABLE}, or 0
+     *         if no such tile has been registered.
+     */
+    public static int getProperties(int tileId) {
+        if (tileId < 0 || tileId >= tiles.length || tiles[tileId] == null)
+            return 0;
+        
+        int p = properties[tileId];
+        
+        if (p == 0) {
+            Tile t = tiles[tileId];
+            
+            p = PROPERTIES_LOADED;
+            if (t.isTransparent())
+                p |= PROPERTY_TRANSPARENT;
+            if (t.canItemAlgorithmPass())
+                p |= PROPERTY_PASSABLE;
+            if (t.isCarvable())
+                p |= PROPERTY_CARVABLE;
+            
+            properties[tileId] = p;
+        }
+        
+        return p & ~PROPERTIES_LOADED;
+    }
+    
     /**
      * Gets the unique identifier of this tile.
      */
@@ -53,6 +136,24 @@ public abstract class Tile {
      */
     public abstract boolean isTransparent();
     
+    /**
+     * Gets a boolean representing whether or not world generation may carve
+     * new features out of this tile.
+     */
+    public boolean isCarvable() {
+        return false;
+    }
+    
+    /**
+     * Gets a boolean representing whether or not worlds should keep track of
+     * where this tile has been placed, so that nearby copies of it can be
+     * found without scanning every tile. Only tiles which are rare and
+     * interesting should be indexed.
+     */
+    public boolean isIndexed() {
+        return false;
+    }
+    
     /**
      * Render this tile at the specified location.
      * 
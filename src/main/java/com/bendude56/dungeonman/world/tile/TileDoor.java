@@ -69,4 +69,9 @@ public class TileDoor extends Tile {
         return false;
     }
     
+    @Override
+    public boolean isIndexed() {
+        return true;
+    }
+    
 }
@@ -5,6 +5,12 @@ package com.bendude56.dungeonman.world.tile;
  */
 
 public class TileMetadata {
+    /**
+     * A shared metadata instance representing a tile with no special data.
+     * This is returned for every location that has not had any metadata set,
+     * so it MUST NOT be modified.
+     */
+    public static final TileMetadata NONE = new TileMetadata();
     
     /**
      * Makes an exact copy of this metadata. Modifying this copy MUST NOT affect
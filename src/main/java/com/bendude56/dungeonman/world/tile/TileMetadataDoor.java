@@ -5,6 +5,11 @@ package com.bendude56.dungeonman.world.tile;
  */
 
 public class TileMetadataDoor extends TileMetadata {
+    /**
+     * A shared metadata instance representing a door that is not locked.
+     */
+    public static final TileMetadataDoor UNLOCKED = new TileMetadataDoor(-1);
+    
     private final int keyId;
     
     public TileMetadataDoor(int keyId) {
@@ -5,6 +5,16 @@ package com.bendude56.dungeonman.world.tile;
  */
 
 public class TileMetadataStairs extends TileMetadata {
+    /**
+     * A shared metadata instance representing stairs going up.
+     */
+    public static final TileMetadataStairs UP = new TileMetadataStairs(true);
+    
+    /**
+     * A shared metadata instance representing stairs going down.
+     */
+    public static final TileMetadataStairs DOWN = new TileMetadataStairs(false);
+    
     private final boolean isGoingUp;
     
     public TileMetadataStairs(boolean isGoingUp) {
@@ -54,4 +54,9 @@ public class TileSecretDoor extends Tile {
         return false;
     }
     
+    @Override
+    public boolean isIndexed() {
+        return true;
+    }
+    
 }
@@ -55,21 +55,28 @@ public class TileStairs extends TileFloor {
     
     @Override
     public boolean onPlayerClimb(TileState state, EntityPlayer player) {
+        GameInstance game = GameInstance.getActiveInstance();
+        
+        // The floor being climbed to may still be catching up in the
+        // background, so wait for it before looking at it
         if (isGoingUp(state)) {
             if (player.getLocation().world.getFloor() == 1) {
                 player.logMessage("You can't leave! That would defeat the entire purpose of the game!");
             } else {
-                GameInstance.getActiveInstance().generateFloor(player.getLocation().world.getFloor() - 1);
-                GameInstance.getActiveInstance().teleport(player,
-                        GameInstance.getActiveInstance().getFloor(player.getLocation().world.getFloor() - 1).getExitLocation());
+                game.generateFloor(player.getLocation().world.getFloor() - 1);
+                game.teleport(player, game.syncFloor(player.getLocation().world.getFloor() - 1).getExitLocation());
             }
         } else {
-            GameInstance.getActiveInstance().generateFloor(player.getLocation().world.getFloor() + 1);
-            GameInstance.getActiveInstance().teleport(player,
-                    GameInstance.getActiveInstance().getFloor(player.getLocation().world.getFloor() + 1).getEntryLocation());
+            game.generateFloor(player.getLocation().world.getFloor() + 1);
+            game.teleport(player, game.syncFloor(player.getLocation().world.getFloor() + 1).getEntryLocation());
         }
         
         return true;
     }
     
+    @Override
+    public boolean isIndexed() {
+        return true;
+    }
+    
 }
@@ -9,21 +9,43 @@ import com.bendude56.dungeonman.world.WorldLocation;
 
 public class TileState {
     private TileMetadata metadata;
-    private final int x, y;
-    private final World w;
+    private int x, y;
+    private World w;
     private Tile tileType;
+    private boolean dirty;
     
     public TileState(WorldLocation l) {
-        metadata = l.getMetadata().clone();
-        x = l.x;
-        y = l.y;
-        w = l.world;
-        tileType = l.getTile();
+        this(l.world, l.x, l.y);
+    }
+    
+    public TileState(World w, int x, int y) {
+        load(w, x, y);
+    }
+    
+    /**
+     * Creates a tile state which has not yet been pointed at any location.
+     */
+    protected TileState() {
+    }
+    
+    /**
+     * Points this state at the specified location, discarding any uncommitted
+     * changes.
+     */
+    protected void load(World w, int x, int y) {
+        this.metadata = w.getMetadata(x, y);
+        this.tileType = w.getTile(x, y);
+        this.x = x;
+        this.y = y;
+        this.w = w;
+        this.dirty = false;
     }
     
     /**
      * Gets the metadata that was present at the specified location when this
-     * state was taken.
+     * state was taken. Metadata is shared with the world rather than copied,
+     * so it MUST NOT be modified; use {@link #setMetadata(TileMetadata)} to
+     * replace it instead.
      */
     public TileMetadata getMetadata() {
         return metadata;
@@ -35,6 +57,7 @@ public class TileState {
      */
     public void setMetadata(TileMetadata metadata) {
         this.metadata = metadata;
+        this.dirty = true;
     }
     
     /**
@@ -51,14 +74,39 @@ public class TileState {
      */
     public void setTileType(Tile tileType) {
         this.tileType = tileType;
+        this.dirty = true;
+    }
+    
+    public int getX() {
+        return x;
+    }
+    
+    public int getY() {
+        return y;
+    }
+    
+    public World getWorld() {
+        return w;
+    }
+    
+    /**
+     * Gets a boolean value representing whether this state has been changed
+     * since it was taken or last applied.
+     */
+    public boolean isDirty() {
+        return dirty;
     }
     
     /**
      * Applies any changes that have been made to this tile state snapshot to
-     * the live world.
+     * the live world. Does nothing if no changes have been made.
      */
     public void update() {
+        if (!dirty)
+            return;
+        
         w.setTile(x, y, tileType);
         w.setMetadata(x, y, metadata);
+        dirty = false;
     }
 }
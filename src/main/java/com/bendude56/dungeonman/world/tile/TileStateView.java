@@ -0,0 +1,39 @@
+package com.bendude56.dungeonman.world.tile;
+
+import com.bendude56.dungeonman.world.World;
+
+/**
+ * A read-only {@link TileState} which can be pointed at one location after
+ * another. Code which only needs to look at tiles, such as rendering, can
+ * keep a single view and reuse it for every tile instead of taking a new
+ * snapshot each time.
+ * 
+ * @author Benjamin C. Thomas
+ */
+
+public class TileStateView extends TileState {
+    
+    /**
+     * Points this view at the specified location.
+     * 
+     * @param w The world containing the location
+     * @param x The x location to view
+     * @param y The y location to view
+     * 
+     * @return This view, for convenience.
+     */
+    public TileStateView moveTo(World w, int x, int y) {
+        load(w, x, y);
+        return this;
+    }
+    
+    @Override
+    public void setMetadata(TileMetadata metadata) {
+        throw new IllegalStateException("Cannot modify a read-only tile state!");
+    }
+    
+    @Override
+    public void setTileType(Tile tileType) {
+        throw new IllegalStateException("Cannot modify a read-only tile state!");
+    }
+}
@@ -47,6 +47,11 @@ public class TileWall extends Tile {
         return false;
     }
     
+    @Override
+    public boolean isCarvable() {
+        return true;
+    }
+    
     @Override
     public boolean onPlayerClimb(TileState state, EntityPlayer player) {
         return false;
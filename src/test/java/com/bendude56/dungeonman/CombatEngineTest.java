@@ -0,0 +1,71 @@
+package com.bendude56.dungeonman;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.bendude56.dungeonman.entity.CombatEngine;
+import com.bendude56.dungeonman.entity.EntityAlive;
+import com.bendude56.dungeonman.entity.EntityPlayer;
+import com.bendude56.dungeonman.entity.EntitySoldier;
+import com.bendude56.dungeonman.entity.EntityStats;
+import com.bendude56.dungeonman.util.GameRandom;
+import com.bendude56.dungeonman.world.World;
+import com.bendude56.dungeonman.world.WorldLocation;
+import com.bendude56.dungeonman.world.tile.Tile;
+
+public class CombatEngineTest {
+    private static World world;
+    
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        GameInstance.createNewGame(0, new EntityStats(0, 0, 0, 0, 0, 0, 0));
+    }
+    
+    @Before
+    public void setUp() throws Exception {
+        world = GameInstance.getActiveInstance().getFloor(1);
+        world.setRect(0, 0, world.getWidth() - 1, world.getHeight() - 1, Tile.wall);
+        world.clearEntities();
+    }
+    
+    @Test
+    public void testCombat() {
+        EntityPlayer p;
+        EntitySoldier s;
+        GameRandom random1 = new GameRandom(42), random2 = new GameRandom(42);
+        int[] damage1 = new int[8], damage2 = new int[8];
+        
+        world.addEntity(p = new EntityPlayer(new WorldLocation(world, 10, 10), new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        world.addEntity(s = new EntitySoldier(new WorldLocation(world, 11, 10)));
+        
+        // The same seed always resolves the same attacks the same way
+        for (int i = 0; i < 8; i++) {
+            EntityAlive attacker = (i % 2 == 0) ? s : p;
+            EntityAlive defender = (i % 2 == 0) ? p : s;
+            
+            damage1[i] = CombatEngine.resolveAttack(attacker, defender, random1);
+            damage2[i] = CombatEngine.resolveAttack(attacker, defender, random2);
+        }
+        
+        Assert.assertArrayEquals(damage1, damage2);
+        
+        for (int i = 0; i < 8; i++) {
+            if (i % 2 == 0) {
+                Assert.assertTrue(damage1[i] >= 13 && damage1[i] < 26);
+            } else {
+                Assert.assertEquals(8, damage1[i]);
+            }
+        }
+        
+        // Changing the stats of an entity changes how it fights
+        Assert.assertEquals(10, p.calculateOutgoingDamage());
+        p.getStats().setStrength(30);
+        Assert.assertEquals(20, p.calculateOutgoingDamage());
+        Assert.assertEquals(40, s.calculateIncomingDeviation(16, p.calculateOutgoingDeviation(16)));
+        
+        int damage = CombatEngine.resolveAttack(p, s, new GameRandom(42));
+        Assert.assertTrue(damage >= 16 && damage < 56);
+    }
+}
@@ -5,7 +5,8 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ InventoryTest.class, WorldTest.class })
+@SuiteClasses({ InventoryTest.class, WorldTest.class, CombatEngineTest.class, GameRandomTest.class,
+        PathTest.class })
 public class FullTestSuite {
     
 }
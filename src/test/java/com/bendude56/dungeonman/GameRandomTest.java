@@ -0,0 +1,32 @@
+package com.bendude56.dungeonman;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.bendude56.dungeonman.util.GameRandom;
+
+public class GameRandomTest {
+    
+    @Test
+    public void testGameRandom() {
+        GameRandom r1 = new GameRandom(7), r2 = new GameRandom(7);
+        GameRandom s1 = r1.split(), s2 = r2.split();
+        
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(r1.nextLong(), r2.nextLong());
+            Assert.assertEquals(s1.nextLong(), s2.nextLong());
+            
+            int n = r1.nextInt(10 + i);
+            Assert.assertTrue(n >= 0 && n < 10 + i);
+            Assert.assertEquals(n, r2.nextInt(10 + i));
+        }
+        
+        Assert.assertTrue(new GameRandom(7).nextLong() != new GameRandom(7).split().nextLong());
+        
+        try {
+            r1.nextInt(0);
+            Assert.fail("IllegalArgumentException not thrown for bound of zero");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.bendude56.dungeonman;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.bendude56.dungeonman.entity.EntityPlayer;
+import com.bendude56.dungeonman.entity.EntityStats;
+import com.bendude56.dungeonman.world.World;
+import com.bendude56.dungeonman.world.WorldLocation;
+import com.bendude56.dungeonman.world.path.FlowField;
+import com.bendude56.dungeonman.world.path.PathFinder;
+import com.bendude56.dungeonman.world.path.RegionGraph;
+import com.bendude56.dungeonman.world.tile.Tile;
+
+public class PathTest {
+    private static World world;
+    
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        GameInstance.createNewGame(0, new EntityStats(0, 0, 0, 0, 0, 0, 0));
+    }
+    
+    @Before
+    public void setUp() throws Exception {
+        world = GameInstance.getActiveInstance().getFloor(1);
+        world.setRect(0, 0, world.getWidth() - 1, world.getHeight() - 1, Tile.wall);
+        world.clearEntities();
+    }
+    
+    @Test
+    public void testPathFinder() {
+        PathFinder finder = new PathFinder(world);
+        int x = 25, y = 25, steps = 0;
+        
+        world.setRect(20, 20, 40, 40, Tile.stoneFloor);
+        world.setRect(30, 20, 30, 38, Tile.wall);
+        
+        while ((x != 35 || y != 25) && steps < 100) {
+            int step = finder.findNextStep(x, y, 35, 25);
+            
+            Assert.assertEquals(1, Math.abs(step % world.getWidth() - x) + Math.abs(step / world.getWidth() - y));
+            
+            x = step % world.getWidth();
+            y = step / world.getWidth();
+            steps++;
+            
+            Assert.assertTrue(world.isPassable(x, y));
+        }
+        
+        Assert.assertEquals(38, steps);
+        
+        // With the way blocked, head for the closest reachable tile
+        world.setTile(30, 39, Tile.wall);
+        world.setTile(30, 40, Tile.wall);
+        
+        Assert.assertEquals(25 * world.getWidth() + 29, finder.findNextStep(28, 25, 35, 25));
+        Assert.assertEquals(-1, finder.findNextStep(29, 25, 35, 25));
+        
+        // A search that runs out of budget still makes progress
+        world.setRect(20, 20, 40, 40, Tile.stoneFloor);
+        Assert.assertTrue(new PathFinder(world, 48, 4).findNextStep(20, 20, 100, 100) >= 0);
+    }
+    
+    @Test
+    public void testFlowField() {
+        EntityPlayer p;
+        FlowField field = new FlowField(world, 20);
+        
+        world.setRect(20, 20, 40, 40, Tile.stoneFloor);
+        world.setRect(30, 20, 30, 38, Tile.wall);
+        world.addEntity(p = new EntityPlayer(new WorldLocation(world, 35, 25), new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        
+        Assert.assertEquals(0, field.getDistance(35, 25));
+        Assert.assertEquals(19, field.getDistance(30, 39));
+        Assert.assertEquals(-1, field.getDistance(25, 25));
+        Assert.assertEquals(-1, field.getDistance(30, 30));
+        
+        int step = field.findNextStep(30, 39, 35, 25);
+        
+        Assert.assertEquals(18, field.getDistance(step % world.getWidth(), step / world.getWidth()));
+        Assert.assertEquals(-1, field.findNextStep(30, 39, 36, 25));
+        
+        // Moving the player or changing a tile nearby recomputes the field
+        p.setLocation(29, 25);
+        
+        Assert.assertEquals(4, field.getDistance(25, 25));
+        
+        world.setTile(28, 25, Tile.wall);
+        
+        Assert.assertEquals(6, field.getDistance(25, 25));
+    }
+    
+    @Test
+    public void testRegionGraph() {
+        RegionGraph graph = new RegionGraph(world);
+        
+        // Three rooms in a row, joined by an open doorway and a closed door
+        world.setRect(20, 20, 24, 24, Tile.stoneFloor);
+        world.setRect(26, 20, 30, 24, Tile.stoneFloor);
+        world.setRect(32, 20, 36, 24, Tile.stoneFloor);
+        world.setTile(25, 22, Tile.stoneFloor);
+        world.setTile(31, 20, Tile.door);
+        world.setRegionGraph(graph);
+        
+        int a = graph.addRegion(20, 20, 24, 24);
+        int b = graph.addRegion(26, 20, 30, 24);
+        int c = graph.addRegion(32, 20, 36, 24);
+        
+        graph.addPortal(25, 22, a, b);
+        graph.addPortal(31, 20, b, c);
+        
+        Assert.assertEquals(b, graph.getRegionAt(28, 21));
+        Assert.assertEquals(-1, graph.getRegionAt(25, 20));
+        Assert.assertEquals(22 * world.getWidth() + 25, graph.findWaypoint(21, 21, 28, 24));
+        Assert.assertEquals(-1, graph.findWaypoint(21, 21, 24, 24));
+        Assert.assertEquals(-1, graph.findWaypoint(21, 21, 35, 21));
+        
+        // Opening the door opens the way through to the last room
+        world.setTile(31, 20, Tile.stoneFloor);
+        
+        Assert.assertEquals(22 * world.getWidth() + 25, graph.findWaypoint(21, 21, 35, 21));
+        Assert.assertEquals(20 * world.getWidth() + 31, graph.findWaypoint(25, 22, 35, 21));
+        
+        world.setRegionGraph(null);
+    }
+}
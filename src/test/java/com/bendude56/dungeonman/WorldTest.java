@@ -1,18 +1,46 @@
 package com.bendude56.dungeonman;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.bendude56.dungeonman.entity.AIController;
+import com.bendude56.dungeonman.entity.Entity;
+import com.bendude56.dungeonman.entity.EntityDroppedItem;
+import com.bendude56.dungeonman.entity.EntityEnemy;
 import com.bendude56.dungeonman.entity.EntityPlayer;
+import com.bendude56.dungeonman.entity.EntitySoldier;
 import com.bendude56.dungeonman.entity.EntityStats;
+import com.bendude56.dungeonman.item.Item;
+import com.bendude56.dungeonman.item.ItemMetadata;
+import com.bendude56.dungeonman.item.ItemStack;
+import com.bendude56.dungeonman.world.ChunkedWorldStorage;
+import com.bendude56.dungeonman.world.EntityPartition;
+import com.bendude56.dungeonman.world.EntityVisitor;
+import com.bendude56.dungeonman.world.MappedWorldStorage;
+import com.bendude56.dungeonman.world.TileVisitor;
 import com.bendude56.dungeonman.world.World;
 import com.bendude56.dungeonman.world.WorldLocation;
+import com.bendude56.dungeonman.world.WorldLocation.Direction;
+import com.bendude56.dungeonman.world.fov.FieldOfView;
+import com.bendude56.dungeonman.world.fov.FieldOfViewBatch;
+import com.bendude56.dungeonman.world.fov.FieldOfViewCache;
+import com.bendude56.dungeonman.world.fov.ShadowCaster;
+import com.bendude56.dungeonman.world.fov.WorldShadowCaster;
 import com.bendude56.dungeonman.world.tile.Tile;
 import com.bendude56.dungeonman.world.tile.TileMetadata;
 import com.bendude56.dungeonman.world.tile.TileMetadataDoor;
 import com.bendude56.dungeonman.world.tile.TileMetadataStairs;
+import com.bendude56.dungeonman.world.tile.TileState;
+import com.bendude56.dungeonman.world.tile.TileStateView;
 
 public class WorldTest {
     
@@ -55,6 +83,14 @@ public class WorldTest {
         }
     }
     
+    @Test
+    public void testTileRegistry() {
+        Assert.assertEquals(Tile.wall, Tile.getTile(Tile.wall.getTileId()));
+        Assert.assertEquals(Tile.stairs, Tile.getTile(Tile.stairs.getTileId()));
+        Assert.assertNull(Tile.getTile(-1));
+        Assert.assertNull(Tile.getTile(Short.MAX_VALUE));
+    }
+    
     @Test
     public void testMetadataEquality() {
         Assert.assertFalse(new TileMetadata().equals(new TileMetadataStairs(true)));
@@ -75,6 +111,375 @@ public class WorldTest {
         world.setTile(0, 0, Tile.wall);
         
         Assert.assertEquals(new TileMetadata(), world.getMetadata(0, 0));
+        
+        world.setMetadata(1, 1, new TileMetadataDoor(3));
+        world.setMetadata(2, 1, new TileMetadataDoor(4));
+        world.setRect(0, 0, 1, 1, Tile.stoneFloor);
+        
+        Assert.assertSame(TileMetadata.NONE, world.getMetadata(1, 1));
+        Assert.assertEquals(new TileMetadataDoor(4), world.getMetadata(2, 1));
+    }
+    
+    @Test
+    public void testTileState() {
+        TileMetadataDoor door = new TileMetadataDoor(5);
+        world.setTileAndMetadata(3, 3, Tile.door, door);
+        
+        TileState state = world.getTileState(3, 3);
+        Assert.assertSame(door, state.getMetadata());
+        Assert.assertFalse(state.isDirty());
+        
+        // A clean state must not overwrite changes made since it was taken
+        world.setMetadata(3, 3, new TileMetadataDoor(6));
+        state.update();
+        Assert.assertEquals(new TileMetadataDoor(6), world.getMetadata(3, 3));
+        
+        state.setTileType(Tile.stoneFloor);
+        Assert.assertTrue(state.isDirty());
+        state.update();
+        Assert.assertFalse(state.isDirty());
+        Assert.assertEquals(Tile.stoneFloor, world.getTile(3, 3));
+        
+        TileStateView view = new TileStateView();
+        Assert.assertEquals(Tile.stoneFloor, view.moveTo(world, 3, 3).getTileType());
+        Assert.assertEquals(Tile.wall, view.moveTo(world, 4, 3).getTileType());
+        
+        try {
+            view.setTileType(Tile.stoneFloor);
+            Assert.fail("Read-only tile state was modified");
+        } catch (IllegalStateException e) {
+        }
+    }
+    
+    @Test
+    public void testTileProperties() {
+        Assert.assertEquals(Tile.PROPERTY_CARVABLE, Tile.getProperties(Tile.wall.getTileId()));
+        Assert.assertEquals(Tile.PROPERTY_TRANSPARENT | Tile.PROPERTY_PASSABLE,
+                Tile.getProperties(Tile.stoneFloor.getTileId()));
+        Assert.assertEquals(0, Tile.getProperties(-1));
+        
+        world.setRect(10, 10, 40, 12, Tile.stoneFloor);
+        world.setTile(20, 11, Tile.door);
+        
+        Assert.assertFalse(world.isOpaque(10, 10));
+        Assert.assertTrue(world.isOpaque(20, 11));
+        Assert.assertTrue(world.isOpaque(-1, 0));
+        Assert.assertTrue(world.isPassable(40, 12));
+        Assert.assertFalse(world.isPassable(20, 11));
+        Assert.assertFalse(world.isPassable(41, 12));
+        Assert.assertTrue(world.isCarvable(41, 12));
+        Assert.assertFalse(world.isCarvable(world.getWidth(), 0));
+        
+        Assert.assertTrue(world.isAvailable(41, 0, 60, 60));
+        Assert.assertFalse(world.isAvailable(40, 0, 60, 60));
+        
+        world.setRect(0, 0, 63, 63, Tile.wall);
+        
+        Assert.assertTrue(world.isAvailable(0, 0, 63, 63));
+        Assert.assertTrue(world.isOpaque(10, 10));
+    }
+    
+    @Test
+    public void testVisibility() {
+        world.clearTileVisibility();
+        world.setTileVisible(10, 10, true);
+        world.setTileVisible(70, 12, true);
+        
+        Assert.assertTrue(world.isTileVisible(10, 10));
+        Assert.assertTrue(world.isTileKnown(70, 12));
+        Assert.assertTrue(world.isAnyTileVisible(0, 0, 10, 10));
+        Assert.assertTrue(world.isAnyTileVisible(69, 11, 199, 12));
+        Assert.assertFalse(world.isAnyTileVisible(11, 0, 69, 199));
+        
+        world.clearTileVisibility();
+        
+        Assert.assertFalse(world.isTileVisible(10, 10));
+        Assert.assertFalse(world.isAnyTileVisible(0, 0, world.getWidth() - 1, world.getHeight() - 1));
+        Assert.assertTrue(world.isTileKnown(10, 10));
+        Assert.assertTrue(world.isAnyTileKnown(70, 12, 70, 12));
+    }
+    
+    @Test
+    public void testFieldOfView() {
+        WorldShadowCaster caster = new WorldShadowCaster();
+        
+        world.clearTileVisibility();
+        world.setRect(10, 10, 30, 30, Tile.stoneFloor);
+        world.setTile(20, 17, Tile.wall);
+        caster.computeFieldOfView(world, 20, 20, 8);
+        
+        Assert.assertTrue(world.isTileVisible(20, 20));
+        Assert.assertTrue(world.isTileVisible(28, 20));
+        Assert.assertTrue(world.isTileVisible(16, 24));
+        Assert.assertTrue(world.isTileVisible(20, 17));
+        Assert.assertTrue(world.isTileKnown(20, 17));
+        Assert.assertFalse(world.isTileVisible(20, 16));
+        Assert.assertFalse(world.isTileVisible(20, 12));
+        Assert.assertFalse(world.isTileVisible(29, 20));
+        Assert.assertFalse(world.isTileVisible(25, 25));
+        
+        // Walls at the edge of the world must not be looked past
+        world.clearTileVisibility();
+        world.setRect(0, 0, 5, 5, Tile.stoneFloor);
+        caster.computeFieldOfView(world, 0, 0, 10);
+        
+        Assert.assertTrue(world.isTileVisible(5, 5));
+        Assert.assertTrue(world.isTileVisible(6, 0));
+        Assert.assertFalse(world.isTileVisible(7, 0));
+        world.clearTileVisibility();
+    }
+    
+    @Test
+    public void testFieldOfViewCache() {
+        FieldOfViewCache cache = new FieldOfViewCache(2);
+        
+        world.clearTileVisibility();
+        world.setRect(10, 10, 30, 30, Tile.stoneFloor);
+        world.setTile(20, 17, Tile.wall);
+        
+        Assert.assertFalse(cache.computeFieldOfView(world, 20, 20, 8));
+        world.clearTileVisibility();
+        Assert.assertTrue(cache.computeFieldOfView(world, 20, 20, 8));
+        Assert.assertTrue(world.isTileVisible(28, 20));
+        Assert.assertFalse(world.isTileVisible(20, 16));
+        
+        // Changing a tile far away leaves the cached view alone
+        world.setTile(100, 100, Tile.stoneFloor);
+        Assert.assertTrue(cache.computeFieldOfView(world, 20, 20, 8));
+        
+        world.clearTileVisibility();
+        world.setTile(20, 17, Tile.stoneFloor);
+        Assert.assertFalse(cache.computeFieldOfView(world, 20, 20, 8));
+        Assert.assertTrue(world.isTileVisible(20, 16));
+        
+        // The least recently used view is replaced once the cache is full
+        Assert.assertFalse(cache.computeFieldOfView(world, 21, 20, 8));
+        Assert.assertFalse(cache.computeFieldOfView(world, 22, 20, 8));
+        Assert.assertTrue(cache.computeFieldOfView(world, 21, 20, 8));
+        Assert.assertFalse(cache.computeFieldOfView(world, 20, 20, 8));
+        world.clearTileVisibility();
+    }
+    
+    @Test
+    public void testLineOfSight() {
+        world.setRect(10, 10, 30, 30, Tile.stoneFloor);
+        world.setTile(20, 15, Tile.wall);
+        
+        Assert.assertTrue(AIController.checkVisibility(world, 20, 20, 20, 16));
+        Assert.assertTrue(AIController.checkVisibility(world, 20, 20, 20, 15));
+        Assert.assertFalse(AIController.checkVisibility(world, 20, 20, 20, 14));
+        Assert.assertFalse(AIController.checkVisibility(world, 22, 10, 18, 20));
+        Assert.assertTrue(AIController.checkVisibility(world, 10, 10, 30, 30));
+        Assert.assertFalse(AIController.checkVisibility(world, 10, 10, 32, 32));
+        
+        Random r = new Random(7);
+        
+        for (int i = 0; i < 200; i++) {
+            world.setTile(10 + r.nextInt(21), 10 + r.nextInt(21), Tile.wall);
+        }
+        
+        for (int i = 0; i < 2000; i++) {
+            int x1 = 10 + r.nextInt(21), y1 = 10 + r.nextInt(21);
+            int x2 = 10 + r.nextInt(21), y2 = 10 + r.nextInt(21);
+            
+            Assert.assertEquals(AIController.checkVisibility(world, x1, y1, x2, y2),
+                    AIController.checkVisibility(world, x2, y2, x1, y1));
+        }
+    }
+    
+    @Test
+    public void testFieldOfViewBatch() {
+        Random r = new Random(3);
+        WorldShadowCaster caster = new WorldShadowCaster();
+        
+        world.setRect(0, 0, 79, 79, Tile.stoneFloor);
+        
+        for (int i = 0; i < 1000; i++) {
+            world.setTile(r.nextInt(80), r.nextInt(80), Tile.wall);
+        }
+        
+        for (int i = 0; i < 40; i++) {
+            world.addEntity(new EntitySoldier(new WorldLocation(world, r.nextInt(80), r.nextInt(80))));
+        }
+        
+        FieldOfView[] views = new FieldOfViewBatch(new ForkJoinPool(4)).compute(world);
+        
+        Assert.assertEquals(40, views.length);
+        
+        for (FieldOfView v : views) {
+            int ox = v.getOriginX(), oy = v.getOriginY();
+            
+            Assert.assertEquals(v.getViewer().getViewDistance(), v.getRadius());
+            
+            world.clearTileVisibility();
+            caster.computeFieldOfView(world, ox, oy, v.getRadius());
+            
+            for (int y = oy - v.getRadius(); y <= oy + v.getRadius(); y++) {
+                for (int x = ox - v.getRadius(); x <= ox + v.getRadius(); x++) {
+                    boolean inWorld = x >= 0 && x < world.getWidth() && y >= 0 && y < world.getHeight();
+                    
+                    Assert.assertEquals(inWorld && world.isTileVisible(x, y), v.isVisible(x, y));
+                }
+            }
+        }
+        
+        world.clearTileVisibility();
+    }
+    
+    @Test
+    public void testFieldOfViewSymmetry() {
+        final int size = 40;
+        final boolean[] walls = new boolean[size * size];
+        final boolean[] seen = new boolean[size * size];
+        Random r = new Random(12);
+        
+        for (int i = 0; i < walls.length; i++) {
+            walls[i] = r.nextInt(4) == 0;
+        }
+        
+        ShadowCaster caster = new ShadowCaster() {
+            @Override
+            protected boolean isBlocking(int x, int y) {
+                return x < 0 || x >= size || y < 0 || y >= size || walls[y * size + x];
+            }
+            
+            @Override
+            protected void reveal(int x, int y) {
+                if (x >= 0 && x < size && y >= 0 && y < size)
+                    seen[y * size + x] = true;
+            }
+        };
+        
+        boolean[][] fov = new boolean[size * size][];
+        
+        for (int i = 0; i < walls.length; i++) {
+            if (!walls[i]) {
+                Arrays.fill(seen, false);
+                caster.computeFieldOfView(i % size, i / size, 12);
+                fov[i] = seen.clone();
+            }
+        }
+        
+        for (int a = 0; a < walls.length; a++) {
+            for (int b = 0; b < walls.length; b++) {
+                if (!walls[a] && !walls[b]) {
+                    Assert.assertEquals(fov[a][b], fov[b][a]);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testTileIndex() {
+        final List<Integer> found = new ArrayList<Integer>();
+        TileVisitor collector = new TileVisitor() {
+            @Override
+            public void visit(int x, int y) {
+                found.add(y * world.getWidth() + x);
+            }
+        };
+        
+        world.setTile(10, 10, Tile.secretDoor);
+        world.setTile(13, 10, Tile.secretDoor);
+        world.setTile(40, 40, Tile.secretDoor);
+        world.setTile(11, 11, Tile.stairs);
+        world.forEachTileNear(Tile.secretDoor, 10, 11, 3, collector);
+        
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(10 * world.getWidth() + 10, (int) found.get(0));
+        
+        // Revealing a secret door moves it to the index of normal doors
+        found.clear();
+        world.setTile(10, 10, Tile.door);
+        world.forEachTileNear(Tile.secretDoor, 10, 11, 4, collector);
+        
+        Assert.assertEquals(Arrays.asList(10 * world.getWidth() + 13), found);
+        
+        found.clear();
+        world.forEachTileNear(Tile.door, 0, 0, 20, collector);
+        world.forEachTileNear(Tile.stairs, 0, 0, 22, collector);
+        
+        Assert.assertEquals(Arrays.asList(10 * world.getWidth() + 10, 11 * world.getWidth() + 11), found);
+        
+        found.clear();
+        world.setRect(0, 0, 20, 20, Tile.stoneFloor);
+        world.forEachTileNear(Tile.secretDoor, 20, 20, 40, collector);
+        world.forEachTileNear(Tile.stairs, 20, 20, 40, collector);
+        
+        Assert.assertEquals(Arrays.asList(40 * world.getWidth() + 40), found);
+    }
+    
+    @Test
+    public void testChunkedStorage() {
+        ChunkedWorldStorage storage = new ChunkedWorldStorage(2000, 2000);
+        
+        Assert.assertEquals(0, storage.getAllocatedChunkCount());
+        Assert.assertTrue(storage.isFilled(0, 0, 1999, 1999, Tile.wall.getTileId()));
+        
+        storage.fillTileIds(30, 30, 33, 33, Tile.stoneFloor.getTileId());
+        
+        Assert.assertEquals(4, storage.getAllocatedChunkCount());
+        Assert.assertEquals(Tile.stoneFloor.getTileId(), storage.getTileId(33, 30));
+        Assert.assertFalse(storage.isFilled(0, 0, 30, 30, Tile.wall.getTileId()));
+        
+        storage.setVisible(1999, 1999, true);
+        storage.setKnown(1999, 1999);
+        
+        Assert.assertEquals(5, storage.getAllocatedChunkCount());
+        Assert.assertTrue(storage.isAnyVisible(1990, 1990, 1999, 1999));
+        
+        storage.fillTileIds(0, 0, 1999, 1999, Tile.wall.getTileId());
+        
+        Assert.assertEquals(1, storage.getAllocatedChunkCount());
+        Assert.assertTrue(storage.isKnown(1999, 1999));
+    }
+    
+    @Test
+    public void testLargeWorld() {
+        World w = new World(2000, 2000, 1);
+        
+        w.setRect(1000, 1000, 1010, 1005, Tile.stoneFloor);
+        
+        Assert.assertEquals(Tile.stoneFloor, w.getTile(1010, 1005));
+        Assert.assertEquals(Tile.wall, w.getTile(1011, 1005));
+        Assert.assertFalse(w.isAvailable(990, 990, 1000, 1000));
+        Assert.assertTrue(w.isAvailable(0, 0, 999, 999));
+    }
+    
+    @Test
+    public void testMappedStorage() throws Exception {
+        File file = File.createTempFile("dungeonman", ".map");
+        file.deleteOnExit();
+        
+        World w = new World(new MappedWorldStorage(file, 300, 300), 1);
+        
+        Assert.assertTrue(w.isAvailable(0, 0, 299, 299));
+        
+        w.setRect(5, 5, 10, 10, Tile.stoneFloor);
+        w.setTileAndMetadata(11, 7, Tile.door, new TileMetadataDoor(-1));
+        w.setTileAndMetadata(5, 5, Tile.stairs, new TileMetadataStairs(true));
+        w.setTileVisible(6, 6, true);
+        
+        MappedWorldStorage reopened = MappedWorldStorage.open(file);
+        
+        Assert.assertEquals(Tile.door.getTileId(), reopened.getTileId(11, 7));
+        Assert.assertSame(TileMetadataDoor.UNLOCKED, reopened.getMetadata(11, 7));
+        Assert.assertSame(TileMetadataStairs.UP, reopened.getMetadata(5, 5));
+        Assert.assertSame(TileMetadata.NONE, reopened.getMetadata(6, 6));
+        Assert.assertTrue(reopened.isKnown(6, 6));
+        Assert.assertFalse(reopened.isAnyVisible(0, 0, 299, 299));
+        
+        // Tiles already in a storage are indexed when a world is built on it
+        final int[] doors = new int[1];
+        
+        new World(reopened, 1).forEachTileNear(Tile.door, 10, 10, 5, new TileVisitor() {
+            @Override
+            public void visit(int x, int y) {
+                doors[0]++;
+            }
+        });
+        
+        Assert.assertEquals(1, doors[0]);
     }
     
     @Test
@@ -107,4 +512,456 @@ public class WorldTest {
         Assert.assertEquals(0, world.getEntities(0, 1).size());
         Assert.assertNull(world.getEntity(p.getEntityId()));
     }
+    
+    @Test
+    public void testEntityOccupancy() {
+        EntityPlayer p;
+        
+        world.addEntity(p = new EntityPlayer(new WorldLocation(world, 2, 2), new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        world.dropItemStack(new ItemStack(Item.goldCoin, new ItemMetadata(), 5), 2, 2);
+        world.dropItemStack(new ItemStack(Item.goldCoin, new ItemMetadata(), 5), 2, 2);
+        
+        // Dropped items draw beneath the player and stack with each other
+        List<Entity> entities = world.getEntities(2, 2);
+        Assert.assertEquals(2, entities.size());
+        Assert.assertTrue(entities.get(0) instanceof EntityDroppedItem);
+        Assert.assertEquals(10, ((EntityDroppedItem) entities.get(0)).getItemStack().getAmount());
+        Assert.assertEquals(p, entities.get(1));
+        
+        p.setLocation(new WorldLocation(world, 3, 2));
+        
+        Assert.assertEquals(1, world.getEntities(2, 2).size());
+        Assert.assertEquals(p, world.getEntities(3, 2).get(0));
+        
+        // Moving into another world removes the entity from this one
+        World other = new World(10, 10, 2);
+        p.setLocation(new WorldLocation(other, 0, 0));
+        
+        Assert.assertEquals(0, world.getEntities(3, 2).size());
+        Assert.assertNull(world.getEntity(p.getEntityId()));
+        
+        world.clearEntities();
+        
+        Assert.assertEquals(0, world.getEntities(2, 2).size());
+    }
+    
+    @Test
+    public void testEntityRange() {
+        EntityPlayer p;
+        
+        world.addEntity(p = new EntityPlayer(new WorldLocation(world, 15, 15), new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        world.dropItemStack(new ItemStack(Item.goldCoin, new ItemMetadata(), 1), 16, 16);
+        world.dropItemStack(new ItemStack(Item.goldCoin, new ItemMetadata(), 1), 40, 3);
+        
+        // Entities come out in draw order regardless of where they are
+        List<Entity> entities = world.getEntities(50, 0, 0, 50);
+        Assert.assertEquals(3, entities.size());
+        Assert.assertTrue(entities.get(0) instanceof EntityDroppedItem);
+        Assert.assertTrue(entities.get(1) instanceof EntityDroppedItem);
+        Assert.assertEquals(p, entities.get(2));
+        
+        Assert.assertEquals(2, world.getEntities(15, 15, 16, 16).size());
+        Assert.assertEquals(1, world.getEntities(16, 16, 39, 39).size());
+        Assert.assertEquals(0, world.getEntities(17, 0, 39, 14).size());
+        
+        final int[] count = new int[1];
+        world.forEachEntityIn(-100, -100, 15, 15, new EntityVisitor() {
+            @Override
+            public void visit(Entity e) {
+                count[0]++;
+            }
+        });
+        Assert.assertEquals(1, count[0]);
+        
+        p.setLocation(new WorldLocation(world, 100, 100));
+        
+        Assert.assertEquals(1, world.getEntities(15, 15, 16, 16).size());
+        Assert.assertEquals(p, world.getEntities(90, 90, 110, 110).get(0));
+    }
+    
+    @Test
+    public void testEntityPartitions() {
+        EntityPlayer p;
+        EntitySoldier soldier;
+        
+        world.addEntity(p = new EntityPlayer(new WorldLocation(world, 20, 20), new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        world.addEntity(soldier = new EntitySoldier(new WorldLocation(world, 25, 25)));
+        world.dropItemStack(new ItemStack(Item.goldCoin, new ItemMetadata(), 1), 22, 22);
+        
+        Assert.assertEquals(3, world.getEntityCount());
+        Assert.assertEquals(p, world.getEntity(EntityPartition.PLAYERS, 0));
+        Assert.assertEquals(soldier, world.getEntity(EntityPartition.ENEMIES, 0));
+        Assert.assertEquals(1, world.getEntityCount(EntityPartition.DROPPED_ITEMS));
+        Assert.assertEquals(0, world.getEntityCount(EntityPartition.OTHERS));
+        
+        // The soldier drops its gold on the pile that's already there
+        int soldierId = soldier.getEntityId();
+        soldier.setLocation(new WorldLocation(world, 22, 22));
+        soldier.die();
+        world.doTurn();
+        
+        Assert.assertNull(world.getEntity(soldierId));
+        Assert.assertEquals(0, world.getEntityCount(EntityPartition.ENEMIES));
+        Assert.assertEquals(2, world.getEntityCount());
+        
+        // A recycled slot never hands out the same ID twice
+        int recycledId = GameInstance.getActiveInstance().generateEntityId();
+        Assert.assertEquals(GameInstance.getEntitySlot(soldierId), GameInstance.getEntitySlot(recycledId));
+        Assert.assertTrue(recycledId != soldierId);
+        Assert.assertNull(world.getEntity(recycledId));
+    }
+    
+    @Test
+    public void testEnemySight() {
+        EntityPlayer p;
+        EntitySoldier near, blocked;
+        
+        world.clearTileVisibility();
+        world.setRect(30, 30, 50, 50, Tile.stoneFloor);
+        world.setTile(42, 40, Tile.wall);
+        world.addEntity(p = new EntityPlayer(new WorldLocation(world, 40, 40), new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        world.addEntity(near = new EntitySoldier(new WorldLocation(world, 42, 42)));
+        world.addEntity(blocked = new EntitySoldier(new WorldLocation(world, 43, 40)));
+        world.updateSight();
+        
+        Assert.assertNotNull(p.getSightField());
+        Assert.assertTrue(near.canSee(p));
+        Assert.assertFalse(blocked.canSee(p));
+        
+        // Once the player moves, sight is cast on the spot instead
+        p.setLocation(40, 41);
+        
+        Assert.assertNull(p.getSightField());
+        Assert.assertTrue(near.canSee(p));
+        Assert.assertFalse(blocked.canSee(p));
+        
+        // As it is once a tile nearby changes
+        p.setLocation(40, 40);
+        world.updateSight();
+        world.setTile(42, 40, Tile.stoneFloor);
+        
+        Assert.assertNull(p.getSightField());
+        Assert.assertTrue(blocked.canSee(p));
+        
+        p.setLocation(30, 30);
+        
+        Assert.assertFalse(near.canSee(p));
+        world.clearTileVisibility();
+    }
+    
+    @Test
+    public void testSightAgreement() {
+        Random random = new Random(15);
+        EntityPlayer p;
+        EntitySoldier s;
+        int visible = 0, hidden = 0;
+        
+        // Scatter pillars around the player, so that plenty of tiles are only
+        // partly hidden
+        world.setRect(20, 20, 60, 60, Tile.stoneFloor);
+        
+        for (int i = 0; i < 150; i++) {
+            world.setTile(21 + random.nextInt(39), 21 + random.nextInt(39), Tile.wall);
+        }
+        
+        world.setRect(39, 39, 41, 41, Tile.stoneFloor);
+        world.addEntity(p = new EntityPlayer(new WorldLocation(world, 40, 40), new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        world.addEntity(s = new EntitySoldier(new WorldLocation(world, 41, 41)));
+        world.updateSight();
+        
+        FieldOfView sight = p.getSightField();
+        int r = sight.getRadius();
+        boolean[] seen = new boolean[(2 * r + 1) * (2 * r + 1)];
+        
+        Assert.assertTrue(r >= s.getViewDistance());
+        
+        for (int y = 40 - r; y <= 40 + r; y++) {
+            for (int x = 40 - r; x <= 40 + r; x++) {
+                seen[(y - 40 + r) * (2 * r + 1) + (x - 40 + r)] = world.canBeSeenFrom(p, x, y);
+            }
+        }
+        
+        // Casting on the spot gives exactly the same answers as the sight field
+        p.setSightField(null, 0);
+        
+        for (int y = 40 - r; y <= 40 + r; y++) {
+            for (int x = 40 - r; x <= 40 + r; x++) {
+                boolean b = seen[(y - 40 + r) * (2 * r + 1) + (x - 40 + r)];
+                
+                Assert.assertEquals(b, world.canBeSeenFrom(p, x, y));
+                
+                if (Math.abs(x - 40) + Math.abs(y - 40) <= r && !world.isOpaque(x, y)) {
+                    if (b) {
+                        visible++;
+                    } else {
+                        hidden++;
+                    }
+                }
+            }
+        }
+        
+        Assert.assertTrue(visible > 0);
+        Assert.assertTrue(hidden > 0);
+        
+        // And so does an enemy wherever it stands, diagonals included
+        for (int y = 37; y <= 43; y++) {
+            for (int x = 37; x <= 43; x++) {
+                if (world.isOpaque(x, y) || (x == 40 && y == 40))
+                    continue;
+                
+                s.setLocation(x, y);
+                world.updateSight();
+                boolean b = s.canSee(p);
+                
+                p.setSightField(null, 0);
+                Assert.assertEquals(b, s.canSee(p));
+                
+                if (b)
+                    s.setTarget(p);
+            }
+        }
+    }
+    
+    @Test
+    public void testTurnScheduler() {
+        EntityPlayer p;
+        EntitySoldier soldier;
+        final int[] turns = new int[1];
+        
+        world.setRect(10, 10, 40, 40, Tile.stoneFloor);
+        world.addEntity(p = new EntityPlayer(new WorldLocation(world, 10, 10), new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        world.addEntity(soldier = new EntitySoldier(new WorldLocation(world, 30, 30)));
+        world.addEntity(new EntitySoldier(new WorldLocation(world, 40, 40)) {
+            @Override
+            public int getActionDelay() {
+                return World.TURN_LENGTH / 2;
+            }
+            
+            @Override
+            public boolean isIdle() {
+                return false;
+            }
+            
+            @Override
+            public void doTurn() {
+                turns[0]++;
+            }
+        });
+        
+        long time = world.getTime();
+        world.doTurn();
+        
+        // Nobody is in sight of the soldier, so it goes to sleep
+        Assert.assertEquals(time + World.TURN_LENGTH, world.getTime());
+        Assert.assertTrue(world.isEntityAsleep(soldier));
+        Assert.assertNull(soldier.getTarget());
+        
+        world.doTurn();
+        
+        Assert.assertTrue(world.isEntityAsleep(soldier));
+        Assert.assertEquals(4, turns[0]);
+        
+        // Coming within its view distance wakes it up
+        p.setLocation(28, 30);
+        world.doTurn();
+        
+        Assert.assertFalse(world.isEntityAsleep(soldier));
+        Assert.assertEquals(p, soldier.getTarget());
+        Assert.assertEquals(6, turns[0]);
+        
+        world.removeEntity(soldier);
+        
+        Assert.assertFalse(world.isEntityAsleep(soldier));
+    }
+    
+    @Test
+    public void testParallelTurns() {
+        EntityPlayer p;
+        List<EntitySoldier> soldiers = new ArrayList<EntitySoldier>();
+        
+        // Enough soldiers to plan their turns on the worker pool, all due at
+        // once and all heading for the same few tiles around the player
+        world.setRect(10, 10, 30, 30, Tile.stoneFloor);
+        world.addEntity(p = new EntityPlayer(new WorldLocation(world, 20, 20), new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        
+        for (int y = 18; y <= 22; y++) {
+            for (int x = 18; x <= 22; x++) {
+                if (x != 20 || y != 20) {
+                    EntitySoldier s = new EntitySoldier(new WorldLocation(world, x, y));
+                    soldiers.add(s);
+                    world.addEntity(s);
+                }
+            }
+        }
+        
+        for (int x = 11; x <= 29; x += 2) {
+            EntitySoldier s = new EntitySoldier(new WorldLocation(world, x, 17));
+            soldiers.add(s);
+            world.addEntity(s);
+        }
+        
+        world.doTurn();
+        world.doTurn();
+        
+        // Nobody ends up sharing a tile, and the soldiers next to the player
+        // stay put as their moves are blocked by the player
+        for (int i = 0; i < soldiers.size(); i++) {
+            EntitySoldier s = soldiers.get(i);
+            
+            Assert.assertEquals(1, world.getEntities(s.getX(), s.getY()).size());
+            
+            if (AIController.getDistance(s.getX(), s.getY(), 20, 20) <= 2 && s.canSee(p))
+                Assert.assertEquals(p, s.getTarget());
+        }
+        
+        Assert.assertEquals(20, p.getX());
+        Assert.assertEquals(20, p.getY());
+        Assert.assertEquals(new WorldLocation(world, 19, 20), soldiers.get(11).getLocation());
+    }
+    
+    @Test
+    public void testEnemyDetail() {
+        EntityPlayer p;
+        EntitySoldier s;
+        
+        world.setRect(10, 10, 120, 20, Tile.stoneFloor);
+        world.addEntity(p = new EntityPlayer(new WorldLocation(world, 12, 15), new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        world.addEntity(s = new EntitySoldier(new WorldLocation(world, 10, 15)));
+        s.setTarget(p);
+        s.doTurn();
+        
+        Assert.assertEquals(EntityEnemy.Detail.FULL, s.getDetail());
+        Assert.assertEquals(11, s.getX());
+        
+        // Far away from the player and from where it last saw them, the
+        // soldier keeps its target but stops moving
+        s.setLocation(110, 15);
+        p.setLocation(50, 15);
+        s.doTurn();
+        
+        Assert.assertEquals(EntityEnemy.Detail.DORMANT, s.getDetail());
+        Assert.assertEquals(110, s.getX());
+        Assert.assertEquals(p, s.getTarget());
+        Assert.assertEquals(World.TURN_LENGTH * 16, s.getActionDelay());
+        
+        // Closer by, it heads for its target without looking around
+        p.setLocation(80, 15);
+        s.doTurn();
+        
+        Assert.assertEquals(EntityEnemy.Detail.REDUCED, s.getDetail());
+        Assert.assertEquals(109, s.getX());
+        Assert.assertEquals(new WorldLocation(world, 12, 15), s.getTargetLastSeen());
+        Assert.assertEquals(World.TURN_LENGTH, s.getActionDelay());
+        
+        // And back in full detail once the player is near
+        p.setLocation(100, 15);
+        s.doTurn();
+        
+        Assert.assertEquals(EntityEnemy.Detail.FULL, s.getDetail());
+        Assert.assertEquals(108, s.getX());
+    }
+    
+    @Test
+    public void testInactiveFloors() {
+        GameInstance game = GameInstance.getActiveInstance();
+        final int[] turns = new int[1];
+        
+        game.generateFloor(2);
+        
+        World floor = game.getFloor(2);
+        long time = floor.getTime();
+        Entity e = new EntitySoldier(floor.getEntryLocation()) {
+            @Override
+            public int getActionDelay() {
+                return World.TURN_LENGTH;
+            }
+            
+            @Override
+            public boolean isIdle() {
+                return false;
+            }
+            
+            @Override
+            public void doTurn() {
+                turns[0]++;
+            }
+        };
+        
+        floor.addEntity(e);
+        
+        // Frozen in time unless inactive floors are being simulated
+        for (int i = 0; i < 16; i++) {
+            game.doTurn();
+        }
+        
+        Assert.assertEquals(time, game.syncFloor(2).getTime());
+        
+        game.setSimulatingInactiveFloors(true);
+        
+        try {
+            // Every 16 turns, the floor catches up by 4 turns of its own
+            for (int batch = 1; batch <= 2; batch++) {
+                for (int i = 0; i < 16; i++) {
+                    game.doTurn();
+                }
+                
+                Assert.assertEquals(floor, game.syncFloor(2));
+                Assert.assertEquals(time + batch * 4 * World.TURN_LENGTH, floor.getTime());
+                Assert.assertEquals(batch * 4, turns[0]);
+            }
+        } finally {
+            game.setSimulatingInactiveFloors(false);
+            floor.removeEntity(e);
+        }
+    }
+    
+    @Test
+    public void testSeededGame() {
+        EntityStats stats = new EntityStats(0, 0, 0, 0, 0, 0, 0);
+        World a = GameInstance.createNewGame(0, stats, 42).getFloor(1);
+        World b = GameInstance.createNewGame(0, stats, 42).getFloor(1);
+        
+        // Two games from the same seed start out on exactly the same floor
+        Assert.assertEquals(a.getEntryLocation().x, b.getEntryLocation().x);
+        Assert.assertEquals(a.getEntryLocation().y, b.getEntryLocation().y);
+        Assert.assertEquals(a.getExitLocation().x, b.getExitLocation().x);
+        Assert.assertEquals(a.getExitLocation().y, b.getExitLocation().y);
+        
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                Assert.assertEquals(a.getTile(x, y), b.getTile(x, y));
+            }
+        }
+        
+        for (EntityPartition p : EntityPartition.values()) {
+            Assert.assertEquals(a.getEntityCount(p), b.getEntityCount(p));
+            
+            for (int i = 0; i < a.getEntityCount(p); i++) {
+                Assert.assertEquals(a.getEntity(p, i).getX(), b.getEntity(p, i).getX());
+                Assert.assertEquals(a.getEntity(p, i).getY(), b.getEntity(p, i).getY());
+            }
+        }
+    }
+    
+    @Test
+    public void testPrimitiveLocations() {
+        EntityPlayer p;
+        WorldLocation l = new WorldLocation(world, 10, 10);
+        
+        for (Direction d : Direction.values()) {
+            WorldLocation adjusted = l.adjustLocation(2, 3, d);
+            
+            Assert.assertEquals(adjusted.x, d.adjustX(10, 2, 3));
+            Assert.assertEquals(adjusted.y, d.adjustY(10, 2, 3));
+        }
+        
+        world.addEntity(p = new EntityPlayer(l, new EntityStats(0, 0, 0, 0, 0, 0, 0)));
+        p.setLocation(11, 12);
+        
+        Assert.assertEquals(11, p.getX());
+        Assert.assertEquals(12, p.getY());
+        Assert.assertEquals(new WorldLocation(world, 11, 12), p.getLocation());
+        Assert.assertEquals(p, world.getEntities(11, 12).get(0));
+        Assert.assertEquals(0, world.getEntities(10, 10).size());
+    }
 }